@@ -14,6 +14,7 @@ public class MessageConstant {
     public static final String CATEGORY_BE_RELATED_BY_SETMEAL = "当前分类关联了套餐,不能删除";
     public static final String CATEGORY_BE_RELATED_BY_DISH = "当前分类关联了菜品,不能删除";
     public static final String SHOPPING_CART_IS_NULL = "购物车数据为空，不能下单";
+    public static final String SHOPPING_CART_LOADING = "购物车数据加载中，请稍后再试";
     public static final String ADDRESS_BOOK_IS_NULL = "用户地址为空，不能下单";
     public static final String LOGIN_FAILED = "登录失败";
     public static final String UPLOAD_FAILED = "文件上传失败";
@@ -25,5 +26,14 @@ public class MessageConstant {
     public static final String ORDER_STATUS_ERROR = "订单状态错误";
     public static final String ORDER_NOT_FOUND = "订单不存在";
     public static final String OUT_OF_DELIVERY = "超出配送范围";
+    public static final String EXPORT_JOB_NOT_FOUND = "导出任务不存在或已过期";
+    public static final String EXPORT_JOB_NOT_FINISHED = "导出任务尚未完成";
+    public static final String EXPORT_JOB_BUSY = "导出任务过多，请稍后再试";
+    public static final String EXPORT_JOB_FAILED = "报表导出失败，请稍后重试";
+    public static final String EXPORT_DATE_RANGE_INVALID = "导出的开始日期不能晚于结束日期";
+    public static final String EXPORT_DATE_RANGE_TOO_LONG = "导出的日期区间过长";
+    public static final String SHOP_ADDRESS_PARSE_FAILED = "店铺地址解析失败";
+    public static final String ADDRESS_PARSE_FAILED = "收货地址解析失败";
+    public static final String ROUTE_PLANNING_FAILED = "配送路线规划失败";
 
 }
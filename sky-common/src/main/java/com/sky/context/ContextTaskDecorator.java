@@ -0,0 +1,42 @@
+package com.sky.context;
+
+import org.slf4j.MDC;
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.Map;
+
+/**
+ * 异步任务的装饰器，把提交任务的线程中的当前用户id和日志上下文传递到执行任务的线程，
+ * 任务执行完成后恢复执行线程原有的上下文
+ */
+public class ContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        Long currentId = BaseContext.getCurrentId();
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return () -> {
+            Long previousId = BaseContext.getCurrentId();
+            Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+            setContext(currentId, mdc);
+            try {
+                runnable.run();
+            } finally {
+                setContext(previousId, previousMdc);
+            }
+        };
+    }
+
+    private void setContext(Long currentId, Map<String, String> mdc) {
+        if (currentId != null) {
+            BaseContext.setCurrentId(currentId);
+        } else {
+            BaseContext.removeCurrentId();
+        }
+        if (mdc != null) {
+            MDC.setContextMap(mdc);
+        } else {
+            MDC.clear();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.sky.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "sky.executor")
+@Data
+public class ExecutorProperties {
+
+    /**
+     * 定时任务线程池配置
+     */
+    private int schedulerPoolSize = 4;
+    // 停止服务时等待正在执行的定时任务完成的时间（秒）
+    private int schedulerAwaitTerminationSeconds = 30;
+
+    /**
+     * 异步任务线程池配置
+     */
+    private int asyncCorePoolSize = 4;
+    private int asyncMaxPoolSize = 16;
+    private int asyncQueueCapacity = 500;
+    // 超过核心线程数的空闲线程的存活时间（秒）
+    private int asyncKeepAliveSeconds = 60;
+    // 停止服务时等待正在执行的异步任务完成的时间（秒）
+    private int asyncAwaitTerminationSeconds = 30;
+    // 运行在JDK 21及以上时，异步任务改为每个任务一个虚拟线程，此时上面的线程池配置不生效
+    private boolean asyncVirtualThreads = false;
+
+}
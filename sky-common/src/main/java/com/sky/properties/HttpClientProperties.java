@@ -0,0 +1,29 @@
+package com.sky.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "sky.http-client")
+@Data
+public class HttpClientProperties {
+
+    /**
+     * 连接池配置
+     */
+    private int maxTotal = 200;
+    private int defaultMaxPerRoute = 20;
+    // 空闲连接超过该时间（秒）后关闭
+    private int idleEvictSeconds = 30;
+    // 服务端未返回Keep-Alive时，连接的最长保持时间（秒）
+    private int keepAliveSeconds = 30;
+
+    /**
+     * 超时配置（毫秒）
+     */
+    private int connectTimeout = 5000;
+    private int socketTimeout = 5000;
+    private int connectionRequestTimeout = 5000;
+
+}
@@ -0,0 +1,32 @@
+package com.sky.result;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 封装游标分页查询结果，查询下一页时将nextOrderTime、nextId作为游标传回
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@NoArgsConstructor
+public class CursorPageResult extends PageResult {
+
+    private boolean hasMore; //是否还有下一页
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime nextOrderTime; //当前页最后一条数据的时间
+
+    private Long nextId; //当前页最后一条数据的id
+
+    public CursorPageResult(long total, List records, boolean hasMore, LocalDateTime nextOrderTime, Long nextId) {
+        super(total, records);
+        this.hasMore = hasMore;
+        this.nextOrderTime = nextOrderTime;
+        this.nextId = nextId;
+    }
+}
@@ -0,0 +1,117 @@
+package com.sky.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 雪花算法id生成器
+ * id结构：41位毫秒时间戳（相对起始时间） + 10位机器id + 12位序号，同一机器每毫秒最多生成4096个id
+ * 通过CAS更新 "时间戳+序号" 实现无锁；同一毫秒内序号用完或系统时钟回拨时，
+ * 沿用上一次的时间戳继续递增（借用后面的毫秒），保证同一机器上生成的id严格递增、不重复。
+ * 机器id可以带有效期（租约），租约过期或被收回后停止生成id，直到设置新的机器id
+ */
+public class SnowflakeIdGenerator {
+
+    // 起始时间 2023-01-01 00:00:00 UTC
+    private static final long EPOCH = 1672531200000L;
+
+    private static final int WORKER_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    // 机器id及其有效期，替换时整体替换
+    private volatile Lease lease;
+    // 上一次生成的 时间戳 << 12 | 序号
+    private final AtomicLong lastState = new AtomicLong();
+    // 当前时间（毫秒），测试时可以替换
+    private final LongSupplier clock;
+
+    /**
+     * @param workerId 机器id，范围 0 ~ 1023，集群内不能重复
+     */
+    public SnowflakeIdGenerator(long workerId) {
+        this(workerId, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param workerId 机器id，范围 0 ~ 1023，集群内不能重复
+     * @param validUntil 机器id的有效期（毫秒时间戳），过期后停止生成id
+     */
+    public SnowflakeIdGenerator(long workerId, long validUntil) {
+        this(workerId, validUntil, System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(long workerId, long validUntil, LongSupplier clock) {
+        this.clock = clock;
+        updateLease(workerId, validUntil);
+    }
+
+    /**
+     * 设置机器id及其有效期，续期或更换机器id时调用
+     * 更换机器id后时间戳和序号继续递增，本机生成的id仍然严格递增
+     * @param workerId
+     * @param validUntil 有效期（毫秒时间戳）
+     */
+    public void updateLease(long workerId, long validUntil) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("机器id超出范围：" + workerId);
+        }
+        this.lease = new Lease(workerId, validUntil);
+    }
+
+    /**
+     * 收回机器id（例如已被其他节点占用），之后生成id时抛出异常，直到重新设置机器id
+     */
+    public void revokeLease() {
+        this.lease = new Lease(-1, 0);
+    }
+
+    /**
+     * 生成下一个id
+     * @return
+     * @throws IllegalStateException 机器id已过期或已被收回
+     */
+    public long nextId() {
+        Lease current = lease;
+        if (clock.getAsLong() >= current.validUntil) {
+            throw new IllegalStateException("订单号生成器的机器id已失效，暂停生成id");
+        }
+
+        long prev;
+        long next;
+        do {
+            prev = lastState.get();
+            long timestamp = clock.getAsLong() - EPOCH;
+            if (timestamp > (prev >>> SEQUENCE_BITS)) {
+                next = timestamp << SEQUENCE_BITS;
+            } else {
+                // 同一毫秒或时钟回拨，序号加1，序号用完时进位到下一毫秒
+                next = prev + 1;
+            }
+        } while (!lastState.compareAndSet(prev, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        return (timestamp << (WORKER_ID_BITS + SEQUENCE_BITS))
+                | (current.workerId << SEQUENCE_BITS)
+                | (next & SEQUENCE_MASK);
+    }
+
+    public long getWorkerId() {
+        return lease.workerId;
+    }
+
+    /**
+     * 机器id及其有效期
+     */
+    private static class Lease {
+        private final long workerId;
+        private final long validUntil;
+
+        Lease(long workerId, long validUntil) {
+            this.workerId = workerId;
+            this.validUntil = validUntil;
+        }
+    }
+}
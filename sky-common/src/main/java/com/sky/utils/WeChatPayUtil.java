@@ -2,24 +2,29 @@ package com.sky.utils;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.sky.properties.HttpClientProperties;
 import com.sky.properties.WeChatProperties;
 import com.wechat.pay.contrib.apache.httpclient.WechatPayHttpClientBuilder;
 import com.wechat.pay.contrib.apache.httpclient.util.PemUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.security.PrivateKey;
 import java.security.Signature;
@@ -31,8 +36,10 @@ import java.util.List;
 
 /**
  * 微信支付工具类
+ * 商户私钥、平台证书和签名客户端只加载一次，证书文件修改后自动重新加载
  */
 @Component
+@Slf4j
 public class WeChatPayUtil {
 
     //微信支付下单接口地址
@@ -41,37 +48,138 @@ public class WeChatPayUtil {
     //申请退款接口地址
     public static final String REFUNDS = "https://api.mch.weixin.qq.com/v3/refund/domestic/refunds";
 
+    // 检查证书文件是否修改的最小间隔（毫秒）
+    private static final long RELOAD_CHECK_INTERVAL_MILLIS = 60 * 1000;
+
     @Autowired
     private WeChatProperties weChatProperties;
+    @Autowired
+    private HttpClientProperties httpClientProperties;
+
+    // 当前使用的商户私钥、平台证书和客户端
+    private volatile Credentials credentials;
+    // 上一次重新加载前使用的客户端，下一次重新加载时关闭，避免影响正在进行的请求
+    private CloseableHttpClient retiredClient;
+    // 上一次检查证书文件的时间
+    private volatile long lastCheckMillis;
 
     /**
-     * 获取调用微信接口的客户端工具对象
+     * 商户私钥、平台证书以及基于它们创建的客户端，只在证书文件修改后重新加载
+     */
+    private static class Credentials {
+        private final PrivateKey merchantPrivateKey;
+        private final CloseableHttpClient httpClient;
+        private final long privateKeyLastModified;
+        private final long certLastModified;
+
+        Credentials(PrivateKey merchantPrivateKey, CloseableHttpClient httpClient,
+                    long privateKeyLastModified, long certLastModified) {
+            this.merchantPrivateKey = merchantPrivateKey;
+            this.httpClient = httpClient;
+            this.privateKeyLastModified = privateKeyLastModified;
+            this.certLastModified = certLastModified;
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (credentials != null) {
+            credentials.httpClient.close();
+        }
+        if (retiredClient != null) {
+            retiredClient.close();
+        }
+    }
+
+    /**
+     * 获取商户私钥、平台证书和客户端，证书文件修改后自动重新加载
      *
      * @return
      */
-    private CloseableHttpClient getClient() {
-        PrivateKey merchantPrivateKey = null;
-        try {
-            //merchantPrivateKey商户API私钥，如何加载商户API私钥请看常见问题
-            merchantPrivateKey = PemUtil.loadPrivateKey(new FileInputStream(new File(weChatProperties.getPrivateKeyFilePath())));
-            //加载平台证书文件
-            X509Certificate x509Certificate = PemUtil.loadCertificate(new FileInputStream(new File(weChatProperties.getWeChatPayCertFilePath())));
-            //wechatPayCertificates微信支付平台证书列表。你也可以使用后面章节提到的“定时更新平台证书功能”，而不需要关心平台证书的来龙去脉
-            List<X509Certificate> wechatPayCertificates = Arrays.asList(x509Certificate);
-
-            WechatPayHttpClientBuilder builder = WechatPayHttpClientBuilder.create()
-                    .withMerchant(weChatProperties.getMchid(), weChatProperties.getMchSerialNo(), merchantPrivateKey)
-                    .withWechatPay(wechatPayCertificates);
-
-            // 通过WechatPayHttpClientBuilder构造的HttpClient，会自动的处理签名和验签
-            CloseableHttpClient httpClient = builder.build();
-            return httpClient;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
+    private Credentials getCredentials() {
+        Credentials current = credentials;
+        long now = System.currentTimeMillis();
+        if (current != null && now - lastCheckMillis < RELOAD_CHECK_INTERVAL_MILLIS) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = credentials;
+            if (current != null && now - lastCheckMillis < RELOAD_CHECK_INTERVAL_MILLIS) {
+                return current;
+            }
+            lastCheckMillis = now;
+
+            File privateKeyFile = new File(weChatProperties.getPrivateKeyFilePath());
+            File certFile = new File(weChatProperties.getWeChatPayCertFilePath());
+            if (current != null
+                    && current.privateKeyLastModified == privateKeyFile.lastModified()
+                    && current.certLastModified == certFile.lastModified()) {
+                return current;
+            }
+
+            try {
+                credentials = loadCredentials(privateKeyFile, certFile);
+            } catch (Exception e) {
+                if (current == null) {
+                    throw new IllegalStateException("加载微信支付商户证书失败", e);
+                }
+                // 重新加载失败时继续使用原来的证书
+                log.error("重新加载微信支付商户证书失败，继续使用原证书", e);
+                return current;
+            }
+
+            if (current != null) {
+                log.info("微信支付商户证书已重新加载");
+                closeQuietly(retiredClient);
+                retiredClient = current.httpClient;
+            }
+            return credentials;
         }
     }
 
+    /**
+     * 读取商户私钥和平台证书，创建带连接池的客户端
+     *
+     * @param privateKeyFile
+     * @param certFile
+     * @return
+     */
+    private Credentials loadCredentials(File privateKeyFile, File certFile) throws IOException {
+        long privateKeyLastModified = privateKeyFile.lastModified();
+        long certLastModified = certFile.lastModified();
+
+        PrivateKey merchantPrivateKey;
+        X509Certificate x509Certificate;
+        //merchantPrivateKey商户API私钥，如何加载商户API私钥请看常见问题
+        try (FileInputStream in = new FileInputStream(privateKeyFile)) {
+            merchantPrivateKey = PemUtil.loadPrivateKey(in);
+        }
+        //加载平台证书文件
+        try (FileInputStream in = new FileInputStream(certFile)) {
+            x509Certificate = PemUtil.loadCertificate(in);
+        }
+        //wechatPayCertificates微信支付平台证书列表。你也可以使用后面章节提到的“定时更新平台证书功能”，而不需要关心平台证书的来龙去脉
+        List<X509Certificate> wechatPayCertificates = Arrays.asList(x509Certificate);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(httpClientProperties.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(httpClientProperties.getDefaultMaxPerRoute());
+
+        WechatPayHttpClientBuilder builder = WechatPayHttpClientBuilder.create()
+                .withMerchant(weChatProperties.getMchid(), weChatProperties.getMchSerialNo(), merchantPrivateKey)
+                .withWechatPay(wechatPayCertificates);
+        builder.setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(httpClientProperties.getConnectTimeout())
+                        .setConnectionRequestTimeout(httpClientProperties.getConnectionRequestTimeout())
+                        .setSocketTimeout(httpClientProperties.getSocketTimeout()).build());
+
+        // 通过WechatPayHttpClientBuilder构造的HttpClient，会自动的处理签名和验签
+        CloseableHttpClient httpClient = builder.build();
+        return new Credentials(merchantPrivateKey, httpClient, privateKeyLastModified, certLastModified);
+    }
+
     /**
      * 发送post方式请求
      *
@@ -80,7 +188,7 @@ public class WeChatPayUtil {
      * @return
      */
     private String post(String url, String body) throws Exception {
-        CloseableHttpClient httpClient = getClient();
+        CloseableHttpClient httpClient = getCredentials().httpClient;
 
         HttpPost httpPost = new HttpPost(url);
         httpPost.addHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.toString());
@@ -88,13 +196,9 @@ public class WeChatPayUtil {
         httpPost.addHeader("Wechatpay-Serial", weChatProperties.getMchSerialNo());
         httpPost.setEntity(new StringEntity(body, "UTF-8"));
 
-        CloseableHttpResponse response = httpClient.execute(httpPost);
-        try {
-            String bodyAsString = EntityUtils.toString(response.getEntity());
-            return bodyAsString;
-        } finally {
-            httpClient.close();
-            response.close();
+        // 只关闭响应，连接归还连接池，客户端复用
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            return EntityUtils.toString(response.getEntity());
         }
     }
 
@@ -105,20 +209,16 @@ public class WeChatPayUtil {
      * @return
      */
     private String get(String url) throws Exception {
-        CloseableHttpClient httpClient = getClient();
+        CloseableHttpClient httpClient = getCredentials().httpClient;
 
         HttpGet httpGet = new HttpGet(url);
         httpGet.addHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.toString());
         httpGet.addHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString());
         httpGet.addHeader("Wechatpay-Serial", weChatProperties.getMchSerialNo());
 
-        CloseableHttpResponse response = httpClient.execute(httpGet);
-        try {
-            String bodyAsString = EntityUtils.toString(response.getEntity());
-            return bodyAsString;
-        } finally {
-            httpClient.close();
-            response.close();
+        // 只关闭响应，连接归还连接池，客户端复用
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            return EntityUtils.toString(response.getEntity());
         }
     }
 
@@ -188,7 +288,7 @@ public class WeChatPayUtil {
             byte[] message = signMessage.getBytes();
 
             Signature signature = Signature.getInstance("SHA256withRSA");
-            signature.initSign(PemUtil.loadPrivateKey(new FileInputStream(new File(weChatProperties.getPrivateKeyFilePath()))));
+            signature.initSign(getCredentials().merchantPrivateKey);
             signature.update(message);
             String packageSign = Base64.getEncoder().encodeToString(signature.sign());
 
@@ -232,4 +332,15 @@ public class WeChatPayUtil {
         //调用申请退款接口
         return post(REFUNDS, body);
     }
+
+    private void closeQuietly(CloseableHttpClient httpClient) {
+        if (httpClient == null) {
+            return;
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("关闭微信支付客户端失败", e);
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package com.sky.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * 按天、按订单状态分组的订单统计数据
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class OrderDailyStatisticsDTO implements Serializable {
+    //下单日期
+    private LocalDate orderDate;
+
+    //订单状态
+    private Integer status;
+
+    //订单数量
+    private Integer orderCount;
+
+    //订单金额合计
+    private BigDecimal amount;
+}
@@ -27,4 +27,16 @@ public class OrdersPageQueryDTO implements Serializable {
 
     private Long userId;
 
+    // 是否使用游标分页，游标分页按下单时间、id倒序，不受页码深度影响
+    private Boolean keyset;
+
+    // 游标分页：上一页最后一条订单的下单时间和id，查询第一页时为空
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime lastOrderTime;
+
+    private Long lastId;
+
+    // 游标分页：是否跳过总记录数的统计，跳过时总记录数返回-1
+    private Boolean skipCount;
+
 }
@@ -0,0 +1,60 @@
+package com.sky.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 每日营业数据（按下单日期/注册日期汇总的物化统计）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyBusinessStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //统计日期
+    private LocalDate statDate;
+
+    //营业额：已完成订单的总金额
+    private BigDecimal turnover;
+
+    //订单总数
+    private Integer totalOrderCount;
+
+    //有效订单数：已完成订单的数量
+    private Integer validOrderCount;
+
+    //已取消订单数
+    private Integer cancelledOrderCount;
+
+    //新增用户数
+    private Integer newUsers;
+
+    //更新时间
+    private LocalDateTime updateTime;
+
+    /**
+     * 构造指定日期各项数据都为0的统计对象
+     * @param statDate
+     * @return
+     */
+    public static DailyBusinessStats empty(LocalDate statDate) {
+        return DailyBusinessStats.builder()
+                .statDate(statDate)
+                .turnover(BigDecimal.ZERO)
+                .totalOrderCount(0)
+                .validOrderCount(0)
+                .cancelledOrderCount(0)
+                .newUsers(0)
+                .build();
+    }
+}
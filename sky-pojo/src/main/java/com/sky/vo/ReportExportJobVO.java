@@ -0,0 +1,55 @@
+package com.sky.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 运营数据报表导出任务
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReportExportJobVO implements Serializable {
+
+    /**
+     * 任务状态 0排队中 1导出中 2已完成 3失败
+     */
+    public static final Integer QUEUED = 0;
+    public static final Integer RUNNING = 1;
+    public static final Integer SUCCESS = 2;
+    public static final Integer FAILED = 3;
+
+    //任务id
+    private String jobId;
+
+    //任务状态 0排队中 1导出中 2已完成 3失败
+    private Integer status;
+
+    //导出进度，0-100
+    private Integer progress;
+
+    //开始日期
+    private LocalDate begin;
+
+    //结束日期
+    private LocalDate end;
+
+    //是否包含订单明细
+    private Boolean detail;
+
+    //失败原因
+    private String errorMessage;
+
+    //提交时间
+    private LocalDateTime createTime;
+
+    //完成时间
+    private LocalDateTime finishTime;
+}
@@ -0,0 +1,23 @@
+package com.sky.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 自定义注解，用于标识集群中同一时刻只能由一个节点执行的定时任务
+ * 执行前在redis中抢占租约，抢占失败的节点跳过本次执行；方法返回数值时作为本次处理的行数记录
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ClusterTask {
+    // 任务名称，同名任务共用一个租约
+    String value();
+
+    // 租约时长（秒），任务执行期间自动续期，节点宕机时租约到期后其他节点才能执行
+    long leaseSeconds() default 300;
+
+    // 租约最短持有时间（秒），避免各节点时钟存在偏差时，任务执行完成后其他节点又重复执行一次
+    long holdSeconds() default 10;
+}
@@ -0,0 +1,202 @@
+package com.sky.aspect;
+
+import com.sky.annotation.ClusterTask;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自定义切面，集群中同名的定时任务同一时刻只由抢到redis租约的节点执行，并记录执行次数、耗时和处理行数
+ * 任务执行期间每隔租约时长的1/3续期一次，执行时间超过租约时长时其他节点也不会重复执行；
+ * 节点宕机后不再续期，租约到期后由其他节点执行
+ */
+@Aspect
+@Component
+@Slf4j
+public class ClusterTaskAspect {
+
+    // 任务租约，key = scheduled_task_lock:任务名称，value = 持有者
+    private static final String LOCK_KEY_PREFIX = "scheduled_task_lock:";
+    // 释放租约：仍由自己持有时，剩余最短持有时间大于0则缩短到该时间，否则直接删除
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end "
+                    + "if tonumber(ARGV[2]) > 0 then return redis.call('pexpire', KEYS[1], ARGV[2]) end "
+                    + "return redis.call('del', KEYS[1])",
+            Long.class);
+    // 续期租约：仍由自己持有时重新设置过期时间（毫秒）
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end "
+                    + "return redis.call('pexpire', KEYS[1], ARGV[2])",
+            Long.class);
+
+    // 当前节点标识
+    private static final String NODE = nodeName();
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 各任务在当前节点的执行统计
+    private final Map<String, TaskStats> statsMap = new ConcurrentHashMap<>();
+
+    // 租约续期线程，不使用定时任务线程池，线程池被长时间运行的任务占满时续期也不会被推迟
+    private final ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-task-lease-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void destroy() {
+        renewExecutor.shutdownNow();
+    }
+
+    /**
+     * 环绕通知，抢占租约后执行任务
+     * @param joinPoint
+     * @param clusterTask
+     * @return
+     * @throws Throwable
+     */
+    @Around("@annotation(clusterTask)")
+    public Object around(ProceedingJoinPoint joinPoint, ClusterTask clusterTask) throws Throwable {
+        String name = clusterTask.value();
+        String lockKey = LOCK_KEY_PREFIX + name;
+        String token = NODE + ":" + UUID.randomUUID();
+        TaskStats stats = statsMap.computeIfAbsent(name, key -> new TaskStats());
+
+        Boolean acquired = stringRedisTemplate.opsForValue()
+                .setIfAbsent(lockKey, token, clusterTask.leaseSeconds(), TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            stats.skipped.incrementAndGet();
+            log.debug("定时任务{}由其他节点执行，本节点跳过，当前持有者：{}", name, stringRedisTemplate.opsForValue().get(lockKey));
+            return skippedResult(((MethodSignature) joinPoint.getSignature()).getReturnType());
+        }
+
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        ScheduledFuture<?> renewal = null;
+        try {
+            renewal = scheduleRenewal(name, lockKey, token, clusterTask.leaseSeconds());
+            Object result = joinPoint.proceed();
+            long rows = result instanceof Number ? ((Number) result).longValue() : 0;
+            stats.rows.addAndGet(rows);
+            success = true;
+            return result;
+        } finally {
+            if (renewal != null) {
+                renewal.cancel(false);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            stats.runs.incrementAndGet();
+            stats.millis.addAndGet(elapsed);
+            if (!success) {
+                stats.failed.incrementAndGet();
+            }
+            long hold = TimeUnit.SECONDS.toMillis(clusterTask.holdSeconds()) - elapsed;
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(lockKey), token, String.valueOf(Math.max(hold, 0)));
+            } catch (Exception e) {
+                log.warn("定时任务{}释放租约失败，租约到期后自动释放", name, e);
+            }
+            log.info("定时任务{}执行{}，耗时{}ms，本节点累计执行{}次、跳过{}次、失败{}次、处理{}行、耗时{}ms",
+                    name, success ? "完成" : "失败", elapsed, stats.runs.get(), stats.skipped.get(),
+                    stats.failed.get(), stats.rows.get(), stats.millis.get());
+        }
+    }
+
+    /**
+     * 任务执行期间定时续期租约
+     * @param name
+     * @param lockKey
+     * @param token
+     * @param leaseSeconds
+     * @return
+     */
+    private ScheduledFuture<?> scheduleRenewal(String name, String lockKey, String token, long leaseSeconds) {
+        long leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        long period = Math.max(leaseMillis / 3, 100);
+        return renewExecutor.scheduleAtFixedRate(() -> {
+            try {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(lockKey),
+                        token, String.valueOf(leaseMillis));
+                if (renewed == null || renewed == 0) {
+                    log.error("定时任务{}的租约已失效，其他节点可能重复执行", name);
+                }
+            } catch (Exception e) {
+                log.warn("定时任务{}续期租约失败", name, e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 跳过执行时的返回值，返回基本类型的方法不能返回null，数值类型返回0（未处理任何行）
+     * @param returnType
+     * @return
+     */
+    private Object skippedResult(Class<?> returnType) {
+        if (!returnType.isPrimitive() || returnType == void.class) {
+            return null;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == char.class) {
+            return (char) 0;
+        }
+        if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        if (returnType == short.class) {
+            return (short) 0;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == float.class) {
+            return 0F;
+        }
+        return 0D;
+    }
+
+    private static String nodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * 单个任务的执行统计
+     */
+    private static class TaskStats {
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong millis = new AtomicLong();
+    }
+}
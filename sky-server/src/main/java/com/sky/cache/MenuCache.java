@@ -0,0 +1,511 @@
+package com.sky.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sky.entity.Setmeal;
+import com.sky.json.JacksonObjectMapper;
+import com.sky.vo.DishVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * C端菜单缓存（菜品、套餐列表）
+ * 一级缓存为进程内的Caffeine，二级缓存为redis
+ * 数据修改时删除redis中的数据，并通过redis发布订阅通知所有节点删除本地缓存
+ *
+ * redis中的key带有版本号：命名空间 + 分类id + ":" + 命名空间版本 + ":" + 分类版本，例如 dish_12:3:1
+ * 失效时只需要对版本号自增，旧版本的key不会再被读取，由过期时间自动清理，
+ * 因此删除单个分类或整个命名空间都是O(1)操作，不需要使用KEYS遍历整个redis
+ *
+ * redis中的value由每个命名空间各自的序列化器读写，默认使用json，可通过sky.cache.codec.*配置
+ *
+ * 从旧版本滚动升级时开启sky.cache.legacy-keys：旧版本节点读写不带版本号的key（dish_12、setmealCache::12，jdk序列化），
+ * 开启后缓存未命中时先读取旧key，删除缓存时同时删除旧key，保证两种节点看到的数据一致；全部节点升级后关闭
+ *
+ * 防止缓存击穿：
+ * 1. 缓存未命中时，同一节点内同一个key只有一个线程查询数据库，其他线程等待其结果；
+ *    不同节点之间通过redis短期锁保证只有一个节点查询数据库，其他节点轮询等待数据写入redis
+ * 2. redis中的数据带有逻辑过期时间，实际过期时间再延长一段，逻辑过期后先返回旧数据，后台异步刷新
+ * 3. 逻辑过期前按概率提前刷新（越接近过期、查询越慢，概率越大），避免大量key同时过期
+ */
+@Component
+@Slf4j
+public class MenuCache implements MessageListener {
+
+    // 缓存失效广播的频道
+    public static final String INVALIDATE_CHANNEL = "menu_cache_invalidate";
+    // 广播消息前缀：删除单个key、删除指定前缀的所有key
+    private static final String KEY_MESSAGE = "key:";
+    private static final String PREFIX_MESSAGE = "prefix:";
+    // 版本号key的前缀
+    private static final String VERSION_KEY_PREFIX = "menu_cache_version:";
+    // 加载锁key的前缀
+    private static final String LOCK_KEY_PREFIX = "menu_cache_lock:";
+    // 等待其他节点加载时轮询redis的间隔（毫秒）
+    private static final long LOCK_POLL_MILLIS = 50;
+    // 只删除自己持有的锁
+    private static final RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+    // redis中缓存数据的头部标识，后面依次为逻辑过期时间、加载耗时
+    private static final byte ENTRY_MAGIC_0 = 'M';
+    private static final byte ENTRY_MAGIC_1 = 'C';
+    private static final int ENTRY_HEADER_LENGTH = 2 + 8 + 4;
+
+    // 菜品缓存的命名空间，key = dish_分类id
+    public static final String DISH_NAMESPACE = "dish_";
+    // 套餐缓存的命名空间，key = setmealCache::分类id
+    public static final String SETMEAL_NAMESPACE = "setmealCache::";
+
+    @Autowired
+    private RedisTemplate<String, byte[]> menuCacheRedisTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 本地缓存最多保存的key数量
+    @Value("${sky.cache.local.maximum-size:1000}")
+    private long localMaximumSize;
+    // 本地缓存的过期时间（秒），广播消息丢失时也能在过期后读取到最新数据
+    @Value("${sky.cache.local.expire-seconds:60}")
+    private long localExpireSeconds;
+    // redis缓存的逻辑过期时间（分钟），失效后不会再被读取的旧版本key在过期后自动删除
+    @Value("${sky.cache.redis.expire-minutes:1440}")
+    private long redisExpireMinutes;
+    // 逻辑过期后仍可返回旧数据的时间（分钟），期间由后台线程刷新
+    @Value("${sky.cache.redis.stale-minutes:10}")
+    private long redisStaleMinutes;
+    // 提前刷新的系数，越大越容易提前刷新，0表示不提前刷新
+    @Value("${sky.cache.early-refresh-beta:1.0}")
+    private double earlyRefreshBeta;
+    // 加载锁的过期时间（秒）
+    @Value("${sky.cache.lock.expire-seconds:10}")
+    private long lockExpireSeconds;
+    // 等待其他节点加载的最长时间（毫秒），超时后直接查询数据库
+    @Value("${sky.cache.lock.wait-millis:3000}")
+    private long lockWaitMillis;
+    // 菜品缓存写入redis时的序列化格式：json、jdk
+    @Value("${sky.cache.codec.dish:json}")
+    private String dishCodec;
+    // 套餐缓存写入redis时的序列化格式：json、jdk
+    @Value("${sky.cache.codec.setmeal:json}")
+    private String setmealCodec;
+    // 是否兼容旧版本节点使用的不带版本号的key，仅在滚动升级期间开启
+    @Value("${sky.cache.legacy-keys:false}")
+    private boolean legacyKeys;
+
+    // 命名空间 -> 序列化器
+    private final Map<String, MenuValueSerializer> serializers = new HashMap<>();
+
+    private Cache<String, Object> localCache;
+
+    // 当前节点正在加载的key -> 加载结果
+    private final Map<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    // 当前节点正在后台刷新的key
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    // 后台刷新线程池，刷新失败或队列已满时丢弃，下次读取时会再次触发
+    private ThreadPoolExecutor refreshExecutor;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
+                .build();
+
+        ObjectMapper objectMapper = new JacksonObjectMapper();
+        serializers.put(DISH_NAMESPACE, new MenuValueSerializer(objectMapper,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, DishVO.class), dishCodec));
+        serializers.put(SETMEAL_NAMESPACE, new MenuValueSerializer(objectMapper,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, Setmeal.class), setmealCodec));
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        refreshExecutor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(100),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "menu-cache-refresh-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * 查询缓存，依次查询本地缓存、redis，都不存在时通过loader查询数据库并写入两级缓存
+     * @param namespace
+     * @param categoryId
+     * @param loader
+     * @return
+     */
+    public <T> T get(String namespace, Long categoryId, Supplier<T> loader) {
+        String key = namespace + categoryId;
+        Object value = localCache.getIfPresent(key);
+        if (value != null) {
+            return (T) value;
+        }
+
+        MenuValueSerializer serializer = serializers.get(namespace);
+        String versionedKey = versionedKey(namespace, key);
+        CacheEntry entry = readEntry(versionedKey, serializer);
+        if (entry == null) {
+            value = loadSingleFlight(versionedKey, serializer, legacyKeys ? () -> loadLegacy(key, serializer, loader) : loader);
+            if (value == null) {
+                return null;
+            }
+        } else {
+            value = entry.value;
+            long now = System.currentTimeMillis();
+            if (entry.isExpired(now)) {
+                // 已逻辑过期，先返回旧数据，后台刷新；旧数据不放入本地缓存
+                refreshAsync(key, versionedKey, serializer, loader);
+                return (T) value;
+            }
+            if (entry.shouldRefreshEarly(now, earlyRefreshBeta)) {
+                refreshAsync(key, versionedKey, serializer, loader);
+            }
+        }
+
+        localCache.put(key, value);
+        return (T) value;
+    }
+
+    /**
+     * 删除指定分类的缓存，并通知所有节点删除本地缓存
+     * @param namespace
+     * @param categoryId
+     */
+    public void evict(String namespace, Long categoryId) {
+        String key = namespace + categoryId;
+        if (legacyKeys) {
+            stringRedisTemplate.delete(key);
+        }
+        stringRedisTemplate.opsForValue().increment(VERSION_KEY_PREFIX + key);
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, KEY_MESSAGE + key);
+    }
+
+    /**
+     * 删除命名空间下所有分类的缓存，并通知所有节点删除本地缓存
+     * @param namespace
+     */
+    public void evictAll(String namespace) {
+        if (legacyKeys) {
+            deleteLegacyKeys(namespace);
+        }
+        stringRedisTemplate.opsForValue().increment(VERSION_KEY_PREFIX + namespace);
+        evictLocalByPrefix(namespace);
+        stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, PREFIX_MESSAGE + namespace);
+    }
+
+    /**
+     * 收到其他节点（包括当前节点）的缓存失效广播，删除本地缓存
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到菜单缓存失效广播：{}", body);
+        if (body.startsWith(KEY_MESSAGE)) {
+            localCache.invalidate(body.substring(KEY_MESSAGE.length()));
+        } else if (body.startsWith(PREFIX_MESSAGE)) {
+            evictLocalByPrefix(body.substring(PREFIX_MESSAGE.length()));
+        }
+    }
+
+    /**
+     * 读取命名空间版本和分类版本（一次往返），拼接出redis中实际使用的key
+     * @param namespace
+     * @param key
+     * @return
+     */
+    private String versionedKey(String namespace, String key) {
+        List<String> versions = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(VERSION_KEY_PREFIX + namespace, VERSION_KEY_PREFIX + key));
+        String namespaceVersion = versions == null || versions.get(0) == null ? "0" : versions.get(0);
+        String keyVersion = versions == null || versions.get(1) == null ? "0" : versions.get(1);
+        return key + ":" + namespaceVersion + ":" + keyVersion;
+    }
+
+    /**
+     * 先读取旧版本节点写入的不带版本号的key，不存在时查询数据库
+     * @param key
+     * @param serializer
+     * @param loader
+     * @return
+     */
+    private Object loadLegacy(String key, MenuValueSerializer serializer, Supplier<?> loader) {
+        CacheEntry legacy = readEntry(key, serializer);
+        if (legacy != null) {
+            log.debug("读取旧版本菜单缓存：{}", key);
+            return legacy.value;
+        }
+        return loader.get();
+    }
+
+    /**
+     * 删除命名空间下旧版本节点写入的不带版本号的key，需要遍历redis，仅在滚动升级期间使用
+     * @param namespace
+     */
+    private void deleteLegacyKeys(String namespace) {
+        ScanOptions options = ScanOptions.scanOptions().match(namespace + "*").count(1000).build();
+        List<String> keys = stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> found = new ArrayList<>();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    // 带版本号的key（dish_12:3:1）由版本号失效，只删除不带版本号的旧key
+                    if (key.indexOf(':', namespace.length()) < 0) {
+                        found.add(key);
+                    }
+                }
+            }
+            return found;
+        });
+        if (keys != null && !keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    /**
+     * 缓存未命中时加载数据，同一节点内同一个key只有一个线程执行加载
+     * @param versionedKey
+     * @param serializer
+     * @param loader
+     * @return
+     */
+    private Object loadSingleFlight(String versionedKey, MenuValueSerializer serializer, Supplier<?> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = loading.putIfAbsent(versionedKey, future);
+        if (running != null) {
+            // 其他线程正在加载同一个key，等待其结果
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            Object value = loadWithLock(versionedKey, serializer, loader, true);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(versionedKey, future);
+        }
+    }
+
+    /**
+     * 获取redis加载锁后查询数据库并写入redis
+     * @param versionedKey
+     * @param serializer
+     * @param loader
+     * @param wait 未获取到锁时是否等待其他节点的加载结果，后台刷新时不等待
+     * @return 加载到的数据，后台刷新未获取到锁时返回null
+     */
+    private Object loadWithLock(String versionedKey, MenuValueSerializer serializer, Supplier<?> loader, boolean wait) {
+        String lockKey = LOCK_KEY_PREFIX + versionedKey;
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, lockExpireSeconds, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            if (!wait) {
+                return null;
+            }
+            // 其他节点正在加载，轮询等待其写入redis
+            long deadline = System.currentTimeMillis() + lockWaitMillis;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(LOCK_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                CacheEntry entry = readEntry(versionedKey, serializer);
+                if (entry != null) {
+                    return entry.value;
+                }
+            }
+            // 等待超时（例如加载的节点异常退出），直接查询数据库，保证请求可用
+            log.warn("等待菜单缓存加载超时：{}", versionedKey);
+            return loader.get();
+        }
+
+        try {
+            if (wait) {
+                // 获取到锁后再检查一次，其他节点可能刚刚写入并释放了锁
+                CacheEntry entry = readEntry(versionedKey, serializer);
+                if (entry != null) {
+                    return entry.value;
+                }
+            }
+            long start = System.currentTimeMillis();
+            Object value = loader.get();
+            if (value != null) {
+                writeEntry(versionedKey, serializer, value, (int) (System.currentTimeMillis() - start));
+            }
+            return value;
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey), token);
+        }
+    }
+
+    /**
+     * 后台刷新缓存，同一节点内同一个key同时只有一个刷新任务
+     * @param key
+     * @param versionedKey
+     * @param serializer
+     * @param loader
+     */
+    private void refreshAsync(String key, String versionedKey, MenuValueSerializer serializer, Supplier<?> loader) {
+        if (!refreshing.add(versionedKey)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    if (loadWithLock(versionedKey, serializer, loader, false) != null) {
+                        localCache.invalidate(key);
+                    }
+                } catch (Exception e) {
+                    log.warn("菜单缓存刷新失败：{}", versionedKey, e);
+                } finally {
+                    refreshing.remove(versionedKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(versionedKey);
+        }
+    }
+
+    /**
+     * 读取redis中的缓存数据
+     * @param versionedKey
+     * @param serializer
+     * @return 不存在时返回null
+     */
+    private CacheEntry readEntry(String versionedKey, MenuValueSerializer serializer) {
+        byte[] bytes = menuCacheRedisTemplate.opsForValue().get(versionedKey);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes.length < ENTRY_HEADER_LENGTH || bytes[0] != ENTRY_MAGIC_0 || bytes[1] != ENTRY_MAGIC_1) {
+            // 没有头部的旧数据，视为不会逻辑过期，由实际过期时间清理
+            Object value = serializer.deserialize(bytes);
+            return value == null ? null : new CacheEntry(value, Long.MAX_VALUE, 0);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+        long expireAt = buffer.getLong();
+        int loadMillis = buffer.getInt();
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        Object value = serializer.deserialize(payload);
+        return value == null ? null : new CacheEntry(value, expireAt, loadMillis);
+    }
+
+    /**
+     * 写入redis，实际过期时间为逻辑过期时间再加上允许返回旧数据的时间
+     * @param versionedKey
+     * @param serializer
+     * @param value
+     * @param loadMillis
+     */
+    private void writeEntry(String versionedKey, MenuValueSerializer serializer, Object value, int loadMillis) {
+        byte[] payload = serializer.serialize(value);
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(redisExpireMinutes);
+        byte[] bytes = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + payload.length)
+                .put(ENTRY_MAGIC_0)
+                .put(ENTRY_MAGIC_1)
+                .putLong(expireAt)
+                .putInt(loadMillis)
+                .put(payload)
+                .array();
+        log.debug("写入菜单缓存：{}，{}字节", versionedKey, bytes.length);
+        menuCacheRedisTemplate.opsForValue().set(versionedKey, bytes,
+                redisExpireMinutes + redisStaleMinutes, TimeUnit.MINUTES);
+    }
+
+    private void evictLocalByPrefix(String prefix) {
+        localCache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * redis中的缓存数据
+     */
+    private static class CacheEntry {
+        private final Object value;
+        // 逻辑过期时间（毫秒时间戳）
+        private final long expireAt;
+        // 上次从数据库加载的耗时（毫秒）
+        private final int loadMillis;
+
+        CacheEntry(Object value, long expireAt, int loadMillis) {
+            this.value = value;
+            this.expireAt = expireAt;
+            this.loadMillis = loadMillis;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expireAt;
+        }
+
+        /**
+         * 按概率提前刷新：now - 加载耗时 * beta * ln(random) >= 过期时间
+         * 越接近过期、加载越慢，提前刷新的概率越大
+         */
+        boolean shouldRefreshEarly(long now, double beta) {
+            if (beta <= 0 || expireAt == Long.MAX_VALUE) {
+                return false;
+            }
+            return now - loadMillis * beta * Math.log(ThreadLocalRandom.current().nextDouble()) >= expireAt;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.sky.cache;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+
+/**
+ * 菜单缓存值的序列化器
+ * 写入时按配置使用json或jdk序列化，读取时根据数据头自动识别格式。以下两种情况会读取到jdk序列化的数据：
+ * 1. 修改sky.cache.codec.*后滚动重启，新旧配置的节点读写同一个带版本号的key
+ * 2. 开启sky.cache.legacy-keys时读取旧版本节点写入的不带版本号的key（见MenuCache）
+ */
+public class MenuValueSerializer implements RedisSerializer<Object> {
+
+    // json格式
+    public static final String JSON = "json";
+    // jdk序列化格式，与修改前redisTemplate默认的格式一致
+    public static final String JDK = "jdk";
+
+    // jdk序列化数据的魔数 0xACED
+    private static final byte JDK_MAGIC_0 = (byte) 0xAC;
+    private static final byte JDK_MAGIC_1 = (byte) 0xED;
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+    private final ObjectMapper objectMapper;
+    private final JavaType javaType;
+    private final boolean writeJson;
+
+    /**
+     * @param objectMapper json序列化使用的对象映射器
+     * @param javaType     缓存值的类型，json反序列化时使用
+     * @param format       写入格式：json、jdk
+     */
+    public MenuValueSerializer(ObjectMapper objectMapper, JavaType javaType, String format) {
+        if (!JSON.equals(format) && !JDK.equals(format)) {
+            throw new IllegalArgumentException("不支持的菜单缓存序列化格式：" + format);
+        }
+        this.objectMapper = objectMapper;
+        this.javaType = javaType;
+        this.writeJson = JSON.equals(format);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (!writeJson) {
+            return jdkSerializer.serialize(value);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new SerializationException("菜单缓存json序列化失败", e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes.length >= 2 && bytes[0] == JDK_MAGIC_0 && bytes[1] == JDK_MAGIC_1) {
+            return jdkSerializer.deserialize(bytes);
+        }
+        try {
+            return objectMapper.readValue(bytes, javaType);
+        } catch (IOException e) {
+            throw new SerializationException("菜单缓存json反序列化失败", e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.sky.config;
+
+import com.sky.context.ContextTaskDecorator;
+import com.sky.properties.ExecutorProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 配置类，定时任务和异步任务使用各自独立、大小可配置的线程池
+ * 定时任务不再共用Spring默认的单线程调度器，执行时间较长的任务不会推迟其他任务；
+ * 异步任务会传递提交线程的当前用户id和日志上下文，线程池已满时拒绝任务并计数
+ */
+@Configuration
+@Slf4j
+public class ExecutorConfiguration implements AsyncConfigurer {
+
+    @Autowired
+    private ExecutorProperties executorProperties;
+
+    // 被拒绝的任务数
+    private final AtomicLong schedulerRejectedCount = new AtomicLong();
+    private final AtomicLong asyncRejectedCount = new AtomicLong();
+
+    /**
+     * 定时任务线程池，bean名称为taskScheduler时@Scheduled任务会自动使用
+     * @return
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        log.info("开始创建定时任务线程池：{}", executorProperties.getSchedulerPoolSize());
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(executorProperties.getSchedulerPoolSize());
+        scheduler.setThreadNamePrefix("sky-scheduler-");
+        scheduler.setRejectedExecutionHandler(counting(schedulerRejectedCount, "定时任务"));
+        scheduler.setErrorHandler(throwable -> log.error("定时任务执行失败", throwable));
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(executorProperties.getSchedulerAwaitTerminationSeconds());
+        return scheduler;
+    }
+
+    /**
+     * 异步任务线程池，@Async任务和SpringMVC异步请求使用
+     * @return
+     */
+    @Bean
+    public AsyncTaskExecutor taskExecutor() {
+        if (executorProperties.isAsyncVirtualThreads()) {
+            ExecutorService virtualThreadExecutor = virtualThreadExecutor();
+            if (virtualThreadExecutor != null) {
+                log.info("异步任务使用虚拟线程执行");
+                VirtualThreadTaskExecutor adapter = new VirtualThreadTaskExecutor(virtualThreadExecutor,
+                        executorProperties.getAsyncAwaitTerminationSeconds());
+                adapter.setTaskDecorator(new ContextTaskDecorator());
+                return adapter;
+            }
+            log.warn("当前JDK不支持虚拟线程，异步任务使用线程池执行");
+        }
+
+        log.info("开始创建异步任务线程池：核心线程数{}，最大线程数{}，队列容量{}",
+                executorProperties.getAsyncCorePoolSize(), executorProperties.getAsyncMaxPoolSize(),
+                executorProperties.getAsyncQueueCapacity());
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(executorProperties.getAsyncCorePoolSize());
+        executor.setMaxPoolSize(executorProperties.getAsyncMaxPoolSize());
+        executor.setQueueCapacity(executorProperties.getAsyncQueueCapacity());
+        executor.setKeepAliveSeconds(executorProperties.getAsyncKeepAliveSeconds());
+        executor.setThreadNamePrefix("sky-async-");
+        executor.setTaskDecorator(new ContextTaskDecorator());
+        executor.setRejectedExecutionHandler(counting(asyncRejectedCount, "异步任务"));
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(executorProperties.getAsyncAwaitTerminationSeconds());
+        return executor;
+    }
+
+    @Override
+    public AsyncTaskExecutor getAsyncExecutor() {
+        return taskExecutor();
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (throwable, method, params) -> log.error("异步任务{}执行失败", method.getName(), throwable);
+    }
+
+    public long getSchedulerRejectedCount() {
+        return schedulerRejectedCount.get();
+    }
+
+    public long getAsyncRejectedCount() {
+        return asyncRejectedCount.get();
+    }
+
+    /**
+     * 拒绝任务时计数并抛出RejectedExecutionException
+     * @param counter
+     * @param name
+     * @return
+     */
+    private RejectedExecutionHandler counting(AtomicLong counter, String name) {
+        RejectedExecutionHandler abortPolicy = new ThreadPoolExecutor.AbortPolicy();
+        return (runnable, executor) -> {
+            long count = counter.incrementAndGet();
+            log.warn("{}线程池已满，拒绝任务，累计拒绝{}个，活动线程：{}，队列长度：{}",
+                    name, count, executor.getActiveCount(), executor.getQueue().size());
+            abortPolicy.rejectedExecution(runnable, executor);
+        };
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，项目按JDK 8编译，运行在JDK 21以下时返回null
+     * @return
+     */
+    private ExecutorService virtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "sky-async-virtual-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 虚拟线程执行器，应用关闭时停止接收任务并等待已提交的任务完成
+     */
+    private static class VirtualThreadTaskExecutor extends TaskExecutorAdapter implements DisposableBean {
+
+        private final ExecutorService executorService;
+        private final int awaitTerminationSeconds;
+
+        VirtualThreadTaskExecutor(ExecutorService executorService, int awaitTerminationSeconds) {
+            super(executorService);
+            this.executorService = executorService;
+            this.awaitTerminationSeconds = awaitTerminationSeconds;
+        }
+
+        @Override
+        public void destroy() throws InterruptedException {
+            executorService.shutdown();
+            if (!executorService.awaitTermination(awaitTerminationSeconds, TimeUnit.SECONDS)) {
+                log.warn("异步任务在{}秒内未执行完，强制停止", awaitTerminationSeconds);
+                executorService.shutdownNow();
+            }
+        }
+    }
+}
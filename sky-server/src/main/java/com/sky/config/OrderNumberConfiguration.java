@@ -0,0 +1,125 @@
+package com.sky.config;
+
+import com.sky.utils.SnowflakeIdGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 配置类，用于创建订单号生成器
+ * 机器id优先使用配置项 sky.order-number.worker-id；未配置时从redis中申请一个未被占用的机器id，
+ * 申请到的机器id通过定时续期保持占用，节点停止后过期释放；
+ * 续期失败时订单号生成器在租约到期前停止生成id，机器id被其他节点占用时重新申请并替换
+ */
+@Configuration
+@Slf4j
+public class OrderNumberConfiguration {
+
+    // 机器id占用记录，key = order_number_worker:机器id
+    private static final String WORKER_KEY_PREFIX = "order_number_worker:";
+    // 申请机器id时的起始位置，依次尝试后面的机器id
+    private static final String WORKER_CURSOR_KEY = "order_number_worker_cursor";
+    // 机器id占用记录的过期时间（秒）
+    private static final long WORKER_LEASE_SECONDS = 60;
+    // 本地认为租约有效的时间比redis中的过期时间提前（毫秒），留出时钟误差和网络耗时
+    private static final long LEASE_SAFETY_MILLIS = 10000;
+    // 续期：仍由本节点占用时延长过期时间，记录丢失（例如redis重启）时重新占用，已被其他节点占用时返回0
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "local owner = redis.call('get', KEYS[1]) "
+                    + "if owner == ARGV[1] then return redis.call('expire', KEYS[1], ARGV[2]) end "
+                    + "if owner == false then redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2]) return 1 end "
+                    + "return 0",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 机器id，-1表示从redis中申请
+    @Value("${sky.order-number.worker-id:-1}")
+    private long configuredWorkerId;
+
+    // 从redis中申请到的机器id及占用标识
+    private String leaseKey;
+    private final String leaseToken = UUID.randomUUID().toString();
+
+    private SnowflakeIdGenerator generator;
+
+    @Bean
+    public SnowflakeIdGenerator orderNumberGenerator() {
+        if (configuredWorkerId >= 0) {
+            log.info("开始创建订单号生成器，机器id：{}", configuredWorkerId);
+            generator = new SnowflakeIdGenerator(configuredWorkerId);
+            return generator;
+        }
+        long start = System.currentTimeMillis();
+        long workerId = acquireWorkerId();
+        log.info("开始创建订单号生成器，机器id：{}", workerId);
+        generator = new SnowflakeIdGenerator(workerId, leaseValidUntil(start));
+        return generator;
+    }
+
+    /**
+     * 定时续期从redis中申请的机器id
+     */
+    @Scheduled(fixedRate = 20000)
+    public void renewWorkerLease() {
+        if (configuredWorkerId >= 0 || generator == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            if (leaseKey != null) {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(leaseKey),
+                        leaseToken, String.valueOf(WORKER_LEASE_SECONDS));
+                if (renewed != null && renewed > 0) {
+                    generator.updateLease(generator.getWorkerId(), leaseValidUntil(start));
+                    return;
+                }
+                // 机器id已被其他节点占用，立即停止生成id，避免与其他节点生成重复的订单号
+                log.error("订单号生成器的机器id已被其他节点占用：{}，停止生成订单号并重新申请机器id", leaseKey);
+                generator.revokeLease();
+                leaseKey = null;
+            }
+            long workerId = acquireWorkerId();
+            generator.updateLease(workerId, leaseValidUntil(start));
+            log.info("订单号生成器更换机器id：{}", workerId);
+        } catch (Exception e) {
+            // 续期失败时生成器在租约到期前自动停止生成id，下次续期成功后恢复
+            log.error("订单号生成器的机器id续期失败：{}", leaseKey, e);
+        }
+    }
+
+    /**
+     * 从开始续期的时间起算租约的本地有效期
+     * @param start
+     * @return
+     */
+    private long leaseValidUntil(long start) {
+        return start + TimeUnit.SECONDS.toMillis(WORKER_LEASE_SECONDS) - LEASE_SAFETY_MILLIS;
+    }
+
+    private long acquireWorkerId() {
+        long start = stringRedisTemplate.opsForValue().increment(WORKER_CURSOR_KEY);
+        for (long i = 0; i <= SnowflakeIdGenerator.MAX_WORKER_ID; i++) {
+            long workerId = (start + i) % (SnowflakeIdGenerator.MAX_WORKER_ID + 1);
+            String key = WORKER_KEY_PREFIX + workerId;
+            Boolean acquired = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(key, leaseToken, WORKER_LEASE_SECONDS, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                leaseKey = key;
+                return workerId;
+            }
+        }
+        throw new IllegalStateException("没有可用的订单号生成器机器id");
+    }
+}
@@ -1,5 +1,6 @@
 package com.sky.controller.admin;
 
+import com.sky.cache.MenuCache;
 import com.sky.dto.DishDTO;
 import com.sky.dto.DishPageQueryDTO;
 import com.sky.entity.Dish;
@@ -12,10 +13,8 @@ import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.data.redis.core.RedisTemplate;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * 菜品管理
@@ -29,7 +28,7 @@ public class DishController {
     @Autowired
     private DishService dishService;
     @Autowired
-    private RedisTemplate redisTemplate;
+    private MenuCache menuCache;
 
     /**
      * 新增菜品
@@ -74,8 +73,8 @@ public class DishController {
         log.info("菜品批量删除: {}", ids);
         dishService.deleteBatch(ids);
 
-        // 将所有的菜品缓存数据清理掉，所有的dish_分类id
-        cleanCache("dish_*");
+        // 批量删除可能涉及多个分类，直接使所有的菜品缓存失效，所有的dish_分类id
+        menuCache.evictAll(MenuCache.DISH_NAMESPACE);
 
         return Result.success();
     }
@@ -102,10 +101,15 @@ public class DishController {
     @ApiOperation("修改菜品")
     public Result update(@RequestBody DishDTO dishDTO) {
         log.info("修改菜品{}", dishDTO);
+        // 修改前的分类，菜品可能被移动到其他分类
+        Long oldCategoryId = dishService.getById(dishDTO.getId()).getCategoryId();
         dishService.updateWithFlavor(dishDTO);
 
-        // 将所有的菜品缓存数据清理掉，所有的dish_分类id
-        cleanCache("dish_*");
+        // 清理修改前后所属分类的菜品缓存
+        cleanCache(oldCategoryId);
+        if (dishDTO.getCategoryId() != null && !dishDTO.getCategoryId().equals(oldCategoryId)) {
+            cleanCache(dishDTO.getCategoryId());
+        }
 
         return Result.success();
     }
@@ -122,8 +126,10 @@ public class DishController {
         log.info("菜品停售起售：{}，{}", status, id);
         dishService.startOrStop(status, id);
 
-        // 将所有的菜品缓存数据清理掉，所有的dish_分类id
-        cleanCache("dish_*");
+        // 清理菜品所属分类的缓存
+        cleanCache(dishService.getById(id).getCategoryId());
+        // 起售停售菜品时可能会修改包含该菜品的套餐状态，同时使套餐缓存失效
+        menuCache.evictAll(MenuCache.SETMEAL_NAMESPACE);
 
         return Result.success();
     }
@@ -143,11 +149,10 @@ public class DishController {
     }
 
     /**
-     * 清理redis缓存数据
-     * @param pattern
+     * 清理指定分类的菜品缓存数据，包括redis和所有节点的本地缓存
+     * @param categoryId
      */
-    private void cleanCache(String pattern) {
-        Set keys = redisTemplate.keys(pattern);
-        redisTemplate.delete(keys);
+    private void cleanCache(Long categoryId) {
+        menuCache.evict(MenuCache.DISH_NAMESPACE, categoryId);
     }
 }
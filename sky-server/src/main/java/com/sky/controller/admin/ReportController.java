@@ -1,8 +1,12 @@
 package com.sky.controller.admin;
 
+import com.sky.constant.MessageConstant;
+import com.sky.exception.ReportBusinessException;
 import com.sky.result.Result;
+import com.sky.service.ReportExportService;
 import com.sky.service.ReportService;
 import com.sky.vo.OrderReportVO;
+import com.sky.vo.ReportExportJobVO;
 import com.sky.vo.SalesTop10ReportVO;
 import com.sky.vo.TurnoverReportVO;
 import com.sky.vo.UserReportVO;
@@ -10,14 +14,28 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 
 /**
  * 数据统计相关接口
@@ -28,8 +46,16 @@ import java.time.LocalDate;
 @Slf4j
 public class ReportController {
 
+    private static final String EXCEL_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
     @Autowired
     private ReportService reportService;
+    @Autowired
+    private ReportExportService reportExportService;
+
+    // 单次导出的最大天数
+    @Value("${sky.report.max-export-days:366}")
+    private int maxExportDays;
 
     /**
      * 统计指定时间区间内的营业额数据
@@ -101,11 +127,106 @@ public class ReportController {
 
     /**
      * 导出运营数据报表
-     * @param response
+     * 报表在异步线程中流式写出，不占用Tomcat工作线程
+     * @param begin 开始日期，默认30天前
+     * @param end 结束日期，默认昨天
+     * @param detail 是否导出订单明细
+     * @return
      */
     @GetMapping("/export")
     @ApiOperation("导出运营数据报表")
-    public void export(HttpServletResponse response){
-        reportService.exportBusinessData(response);
+    public ResponseEntity<StreamingResponseBody> export(
+            @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate begin,
+            @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate end,
+            @RequestParam(defaultValue = "false") boolean detail
+    ){
+        // 默认导出最近30天的运营数据
+        LocalDate dateBegin = begin == null ? LocalDate.now().minusDays(30) : begin;
+        LocalDate dateEnd = end == null ? LocalDate.now().minusDays(1) : end;
+        log.info("导出运营数据报表：{}, {}, 订单明细：{}", dateBegin, dateEnd, detail);
+        checkExportDateRange(dateBegin, dateEnd);
+
+        StreamingResponseBody body = out -> reportService.exportBusinessData(dateBegin, dateEnd, detail, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(EXCEL_CONTENT_TYPE))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=business_data_" + dateBegin + "_" + dateEnd + ".xlsx")
+                .body(body);
+    }
+
+    /**
+     * 校验导出的日期区间，开始日期不能晚于结束日期，区间不能超过最大天数
+     * @param begin
+     * @param end
+     */
+    private void checkExportDateRange(LocalDate begin, LocalDate end) {
+        if (begin.isAfter(end)) {
+            throw new ReportBusinessException(MessageConstant.EXPORT_DATE_RANGE_INVALID);
+        }
+        if (ChronoUnit.DAYS.between(begin, end) + 1 > maxExportDays) {
+            throw new ReportBusinessException(MessageConstant.EXPORT_DATE_RANGE_TOO_LONG);
+        }
+    }
+
+    /**
+     * 提交运营数据报表导出任务
+     * @param begin 开始日期，默认30天前
+     * @param end 结束日期，默认昨天
+     * @param detail 是否导出订单明细
+     * @return
+     */
+    @PostMapping("/export/jobs")
+    @ApiOperation("提交运营数据报表导出任务")
+    public Result<ReportExportJobVO> submitExportJob(
+            @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate begin,
+            @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate end,
+            @RequestParam(defaultValue = "false") boolean detail
+    ){
+        LocalDate dateBegin = begin == null ? LocalDate.now().minusDays(30) : begin;
+        LocalDate dateEnd = end == null ? LocalDate.now().minusDays(1) : end;
+        log.info("提交运营数据报表导出任务：{}, {}, 订单明细：{}", dateBegin, dateEnd, detail);
+        // 在提交任务前校验，非法的日期区间不占用导出线程
+        checkExportDateRange(dateBegin, dateEnd);
+        ReportExportJobVO reportExportJobVO = reportExportService.submit(dateBegin, dateEnd, detail);
+        return Result.success(reportExportJobVO);
+    }
+
+    /**
+     * 查询导出任务的状态和进度
+     * @param jobId
+     * @return
+     */
+    @GetMapping("/export/jobs/{jobId}")
+    @ApiOperation("查询导出任务进度")
+    public Result<ReportExportJobVO> exportJob(@PathVariable String jobId){
+        return Result.success(reportExportService.getJob(jobId));
+    }
+
+    /**
+     * 下载已完成的导出文件，通过FileChannel.transferTo写出
+     * 不使用Tomcat的sendfile，sendfile在方法返回后才发送文件，无法保证发送期间文件不被清理任务删除
+     * @param jobId
+     * @param response
+     */
+    @GetMapping("/export/jobs/{jobId}/file")
+    @ApiOperation("下载导出文件")
+    public void downloadExportFile(@PathVariable String jobId, HttpServletResponse response) throws IOException {
+        File file = reportExportService.acquireFile(jobId);
+        try {
+            long length = file.length();
+
+            response.setContentType(EXCEL_CONTENT_TYPE);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=business_data_" + jobId + ".xlsx");
+            response.setContentLengthLong(length);
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+                long position = 0;
+                while (position < length) {
+                    position += channel.transferTo(position, length - position, target);
+                }
+            }
+        } finally {
+            reportExportService.releaseFile(jobId);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package com.sky.controller.admin;
 
+import com.sky.cache.MenuCache;
 import com.sky.dto.SetmealDTO;
 import com.sky.dto.SetmealPageQueryDTO;
 import com.sky.result.PageResult;
@@ -10,7 +11,6 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -25,6 +25,8 @@ import java.util.List;
 public class SetmealController {
     @Autowired
     private SetmealService setmealService;
+    @Autowired
+    private MenuCache menuCache;
 
     /**
      * 新增套餐
@@ -61,10 +63,12 @@ public class SetmealController {
      */
     @DeleteMapping
     @ApiOperation("批量删除套餐")
-    @CacheEvict(cacheNames = "setmealCache", allEntries = true)
     public Result<String> delete(@RequestParam List<Long> ids) {
         log.info("批量删除套餐：{}", ids);
         setmealService.deleteBatch(ids);
+
+        // 批量删除可能涉及多个分类，直接使所有的套餐缓存失效
+        menuCache.evictAll(MenuCache.SETMEAL_NAMESPACE);
         return Result.success();
     }
 
@@ -88,10 +92,17 @@ public class SetmealController {
      */
     @PutMapping
     @ApiOperation("修改套餐")
-    @CacheEvict(cacheNames = "setmealCache", allEntries = true)
     public Result<String> update(@RequestBody SetmealDTO setmealDTO) {
         log.info("修改套餐：{}", setmealDTO);
+        // 修改前的分类，套餐可能被移动到其他分类
+        Long oldCategoryId = setmealService.getByIdWithDish(setmealDTO.getId()).getCategoryId();
         setmealService.updateWithDish(setmealDTO);
+
+        // 清理修改前后所属分类的套餐缓存
+        menuCache.evict(MenuCache.SETMEAL_NAMESPACE, oldCategoryId);
+        if (setmealDTO.getCategoryId() != null && !setmealDTO.getCategoryId().equals(oldCategoryId)) {
+            menuCache.evict(MenuCache.SETMEAL_NAMESPACE, setmealDTO.getCategoryId());
+        }
         return Result.success();
     }
 
@@ -102,10 +113,12 @@ public class SetmealController {
      * @return
      */
     @PostMapping("/status/{status}")
-    @CacheEvict(cacheNames = "setmealCache", allEntries = true)
     public Result<String> startOrStop(@PathVariable Integer status, Long id) {
         log.info("套餐停售起售：{}，{}", status, id);
         setmealService.startOrStop(status, id);
+
+        // 清理套餐所属分类的缓存
+        menuCache.evict(MenuCache.SETMEAL_NAMESPACE, setmealService.getByIdWithDish(id).getCategoryId());
         return Result.success();
     }
 }
@@ -4,16 +4,16 @@ import com.alibaba.druid.support.json.JSONUtils;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.sky.properties.WeChatProperties;
-import com.sky.service.OrderService;
+import com.sky.service.PayNotifyService;
 import com.wechat.pay.contrib.apache.httpclient.util.AesUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.entity.ContentType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
@@ -25,7 +25,7 @@ import java.util.HashMap;
 @Slf4j
 public class PayNotifyController {
     @Autowired
-    private OrderService orderService;
+    private PayNotifyService payNotifyService;
     @Autowired
     private WeChatProperties weChatProperties;
 
@@ -51,10 +51,10 @@ public class PayNotifyController {
         log.info("商户平台订单号：{}", outTradeNo);
         log.info("微信支付交易号：{}", transactionId);
 
-        //业务处理，修改订单状态、来单提醒
-        orderService.paySuccess(outTradeNo);
+        //按交易号去重后写入队列，由后台线程修改订单状态、来单提醒
+        payNotifyService.accept(outTradeNo, transactionId);
 
-        //给微信响应
+        //写入队列后立即给微信响应，重复的通知也响应成功，避免微信继续重试
         responseToWeixin(response);
     }
 
@@ -66,16 +66,8 @@ public class PayNotifyController {
      * @throws Exception
      */
     private String readData(HttpServletRequest request) throws Exception {
-        BufferedReader reader = request.getReader();
-        StringBuilder result = new StringBuilder();
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            if (result.length() > 0) {
-                result.append("\n");
-            }
-            result.append(line);
-        }
-        return result.toString();
+        // 一次性读取请求体
+        return StreamUtils.copyToString(request.getInputStream(), StandardCharsets.UTF_8);
     }
 
     /**
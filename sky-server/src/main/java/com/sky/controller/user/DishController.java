@@ -1,5 +1,6 @@
 package com.sky.controller.user;
 
+import com.sky.cache.MenuCache;
 import com.sky.constant.StatusConstant;
 import com.sky.entity.Dish;
 import com.sky.result.Result;
@@ -9,7 +10,6 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -23,7 +23,7 @@ public class DishController {
     @Autowired
     private DishService dishService;
     @Autowired
-    private RedisTemplate redisTemplate;
+    private MenuCache menuCache;
 
     /**
      * 根据分类id查询菜品
@@ -34,25 +34,13 @@ public class DishController {
     @GetMapping("/list")
     @ApiOperation("根据分类id查询菜品")
     public Result<List<DishVO>> list(Long categoryId) {
-        // 构建redis中key，规则： dish_分类id
-        String key = "dish_" + categoryId;
-
-        // 查询redis中是否存在菜品数据
-        // 放进去是什么类型的数据, 取出来就是什么类型
-        List<DishVO> list = (List<DishVO>) redisTemplate.opsForValue().get(key);
-
-        if (list != null && list.size() > 0) {
-            // 如果存在，直接返回，无需查询
-            return Result.success(list);
-        }
-
-        Dish dish = new Dish();
-        dish.setCategoryId(categoryId);
-        dish.setStatus(StatusConstant.ENABLE); //查询起售中的菜品
-
-        // 如果不存在，查询数据库，将查询到的数据添加到redis
-        list = dishService.listWithFlavor(dish);
-        redisTemplate.opsForValue().set(key, list);
+        // 依次查询本地缓存和redis，都不存在时查询数据库并写入缓存，key规则： dish_分类id
+        List<DishVO> list = menuCache.get(MenuCache.DISH_NAMESPACE, categoryId, () -> {
+            Dish dish = new Dish();
+            dish.setCategoryId(categoryId);
+            dish.setStatus(StatusConstant.ENABLE); //查询起售中的菜品
+            return dishService.listWithFlavor(dish);
+        });
 
         return Result.success(list);
     }
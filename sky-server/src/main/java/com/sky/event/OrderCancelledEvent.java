@@ -0,0 +1,18 @@
+package com.sky.event;
+
+import lombok.Getter;
+
+/**
+ * 订单取消事件，包括用户取消、商家拒单、商家取消
+ */
+@Getter
+public class OrderCancelledEvent extends OrderEvent {
+
+    // 取消原因
+    private final String reason;
+
+    public OrderCancelledEvent(Long orderId, String orderNumber, String reason) {
+        super(orderId, orderNumber);
+        this.reason = reason;
+    }
+}
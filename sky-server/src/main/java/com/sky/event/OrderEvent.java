@@ -0,0 +1,26 @@
+package com.sky.event;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * 订单事件，在订单相关的事务提交后由OrderEventDispatcher分发给各个OrderEventSink
+ */
+@Getter
+@ToString
+public abstract class OrderEvent {
+
+    // 订单id
+    private final Long orderId;
+    // 订单号
+    private final String orderNumber;
+    // 事件发生时间
+    private final LocalDateTime occurTime = LocalDateTime.now();
+
+    protected OrderEvent(Long orderId, String orderNumber) {
+        this.orderId = orderId;
+        this.orderNumber = orderNumber;
+    }
+}
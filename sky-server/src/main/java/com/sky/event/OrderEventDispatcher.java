@@ -0,0 +1,123 @@
+package com.sky.event;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单事件分发器
+ * 事务提交后接收订单事件并放入有界队列，由后台线程按批分发给所有OrderEventSink，
+ * 业务线程只负责入队，通知的耗时不计入下单、支付回调等业务请求
+ */
+@Component
+@Slf4j
+public class OrderEventDispatcher {
+
+    @Autowired
+    private List<OrderEventSink> sinks;
+
+    // 事件队列容量，队列满时丢弃新事件
+    @Value("${sky.order-event.queue-capacity:10000}")
+    private int queueCapacity;
+    // 每批最多分发的事件数
+    @Value("${sky.order-event.batch-size:100}")
+    private int batchSize;
+
+    private BlockingQueue<OrderEvent> queue;
+    private Thread dispatchThread;
+    private volatile boolean running = true;
+
+    // 分发统计
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private long lastDispatched;
+
+    @PostConstruct
+    public void init() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        dispatchThread = new Thread(this::dispatchLoop, "order-event-dispatcher");
+        dispatchThread.setDaemon(true);
+        dispatchThread.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        dispatchThread.interrupt();
+    }
+
+    /**
+     * 事务提交后接收订单事件，没有事务时直接接收
+     * @param event
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onOrderEvent(OrderEvent event) {
+        received.incrementAndGet();
+        if (!queue.offer(event)) {
+            dropped.incrementAndGet();
+            log.warn("订单事件队列已满，丢弃事件：{}", event);
+        }
+    }
+
+    /**
+     * 每分钟输出一次分发统计，没有新事件时不输出
+     */
+    @Scheduled(fixedRate = 60000)
+    public void logStats() {
+        long total = dispatched.get();
+        if (total == lastDispatched && queue.isEmpty()) {
+            return;
+        }
+        log.info("订单事件分发统计，最近一分钟分发：{}，累计接收：{}，累计分发：{}，累计批次：{}，累计丢弃：{}，队列积压：{}",
+                total - lastDispatched, received.get(), total, batches.get(), dropped.get(), queue.size());
+        lastDispatched = total;
+    }
+
+    private void dispatchLoop() {
+        List<OrderEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                OrderEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void dispatch(List<OrderEvent> batch) {
+        for (OrderEventSink sink : sinks) {
+            try {
+                sink.handle(batch);
+            } catch (Exception e) {
+                // 一个接收方失败不影响其他接收方
+                log.error("订单事件分发失败：{}", sink.getClass().getSimpleName(), e);
+            }
+        }
+        dispatched.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+}
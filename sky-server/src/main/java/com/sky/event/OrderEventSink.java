@@ -0,0 +1,15 @@
+package com.sky.event;
+
+import java.util.List;
+
+/**
+ * 订单事件的接收方，由OrderEventDispatcher在后台线程中按批调用
+ */
+public interface OrderEventSink {
+
+    /**
+     * 处理一批订单事件，按发生顺序排列
+     * @param events
+     */
+    void handle(List<OrderEvent> events);
+}
@@ -0,0 +1,11 @@
+package com.sky.event;
+
+/**
+ * 订单支付成功事件
+ */
+public class OrderPaidEvent extends OrderEvent {
+
+    public OrderPaidEvent(Long orderId, String orderNumber) {
+        super(orderId, orderNumber);
+    }
+}
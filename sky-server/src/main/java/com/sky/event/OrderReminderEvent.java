@@ -0,0 +1,11 @@
+package com.sky.event;
+
+/**
+ * 用户催单事件
+ */
+public class OrderReminderEvent extends OrderEvent {
+
+    public OrderReminderEvent(Long orderId, String orderNumber) {
+        super(orderId, orderNumber);
+    }
+}
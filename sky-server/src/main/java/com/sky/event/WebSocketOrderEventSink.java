@@ -0,0 +1,51 @@
+package com.sky.event;
+
+import com.alibaba.fastjson.JSON;
+import com.sky.websocket.WebSocketClusterBroadcaster;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通过WebSocket向管理端浏览器推送来单提醒和催单消息，消息经redis广播到集群内所有节点
+ * 系统只有一个店铺，管理端连接的sid由浏览器随机生成，没有sid与管理员的对应关系，
+ * 因此订单消息发送给所有管理端；需要发给指定客户端的消息使用WebSocketClusterBroadcaster.publish
+ */
+@Component
+public class WebSocketOrderEventSink implements OrderEventSink {
+
+    // 1表示来单提醒，2表示用户催单
+    private static final int TYPE_PAID = 1;
+    private static final int TYPE_REMINDER = 2;
+
+    @Autowired
+    private WebSocketClusterBroadcaster webSocketClusterBroadcaster;
+
+    @Override
+    public void handle(List<OrderEvent> events) {
+        for (OrderEvent event : events) {
+            int type;
+            if (event instanceof OrderPaidEvent) {
+                type = TYPE_PAID;
+            } else if (event instanceof OrderReminderEvent) {
+                type = TYPE_REMINDER;
+            } else {
+                // 其他事件管理端页面不需要提醒
+                continue;
+            }
+
+            // 通过webSocket向客户端浏览器推送消息 type orderId content
+            Map<String, Object> map = new HashMap<>();
+            map.put("type", type);
+            map.put("orderId", event.getOrderId());
+            map.put("content", "订单号：" + event.getOrderNumber());
+
+            String json = JSON.toJSONString(map);
+            // 同一订单同一类型尚未发送的消息只保留一条
+            webSocketClusterBroadcaster.broadcast(type + ":" + event.getOrderId(), json);
+        }
+    }
+}
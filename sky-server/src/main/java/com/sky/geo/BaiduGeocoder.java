@@ -0,0 +1,65 @@
+package com.sky.geo;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sky.utils.HttpClientUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基于百度地图开放平台的地理编码与路线规划
+ */
+@Component
+@ConditionalOnProperty(name = "sky.geo.provider", havingValue = "baidu", matchIfMissing = true)
+@Slf4j
+public class BaiduGeocoder implements Geocoder {
+
+    private static final String GEOCODING_URL = "https://api.map.baidu.com/geocoding/v3";
+    private static final String DRIVING_URL = "https://api.map.baidu.com/directionlite/v1/driving";
+
+    @Value("${sky.baidu.ak}")
+    private String ak;
+
+    @Override
+    public String geocode(String address) {
+        Map<String, String> map = new HashMap<>();
+        map.put("address", address);
+        map.put("output", "json");
+        map.put("ak", ak);
+
+        JSONObject jsonObject = JSON.parseObject(HttpClientUtil.doGet(GEOCODING_URL, map));
+        if (jsonObject == null || !"0".equals(jsonObject.getString("status"))) {
+            log.warn("地址解析失败：{}，{}", address, jsonObject);
+            return null;
+        }
+
+        //数据解析
+        JSONObject location = jsonObject.getJSONObject("result").getJSONObject("location");
+        return location.getString("lat") + "," + location.getString("lng");
+    }
+
+    @Override
+    public Integer drivingDistance(String origin, String destination) {
+        Map<String, String> map = new HashMap<>();
+        map.put("origin", origin);
+        map.put("destination", destination);
+        map.put("steps_info", "0");
+        map.put("ak", ak);
+
+        JSONObject jsonObject = JSON.parseObject(HttpClientUtil.doGet(DRIVING_URL, map));
+        if (jsonObject == null || !"0".equals(jsonObject.getString("status"))) {
+            log.warn("路线规划失败：{} -> {}，{}", origin, destination, jsonObject);
+            return null;
+        }
+
+        //数据解析
+        JSONArray routes = jsonObject.getJSONObject("result").getJSONArray("routes");
+        return routes.getJSONObject(0).getInteger("distance");
+    }
+}
@@ -0,0 +1,23 @@
+package com.sky.geo;
+
+/**
+ * 地理编码与路线规划
+ * 坐标统一使用 "纬度,经度" 格式的字符串
+ */
+public interface Geocoder {
+
+    /**
+     * 地址解析为经纬度坐标
+     * @param address
+     * @return 坐标，解析失败时返回null
+     */
+    String geocode(String address);
+
+    /**
+     * 驾车路线距离
+     * @param origin 起点坐标
+     * @param destination 终点坐标
+     * @return 距离（米），规划失败时返回null
+     */
+    Integer drivingDistance(String origin, String destination);
+}
@@ -0,0 +1,75 @@
+package com.sky.geo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地模拟的地理编码与路线规划，不访问外部接口，用于本地开发和离线测试
+ * 坐标由地址的hash值确定性地生成在基准坐标附近，路线距离按直线距离乘以系数估算
+ * 启用方式：sky.geo.provider=stub
+ */
+@Component
+@ConditionalOnProperty(name = "sky.geo.provider", havingValue = "stub")
+@Slf4j
+public class StubGeocoder implements Geocoder {
+
+    // 地球平均半径（米）
+    private static final double EARTH_RADIUS = 6371000;
+    // 驾车距离相对直线距离的系数
+    private static final double ROUTE_FACTOR = 1.3;
+
+    // 基准坐标
+    @Value("${sky.geo.stub.lat:39.915}")
+    private double baseLat;
+    @Value("${sky.geo.stub.lng:116.404}")
+    private double baseLng;
+    // 生成坐标时相对基准坐标的最大偏移（度）
+    @Value("${sky.geo.stub.spread:0.05}")
+    private double spread;
+    // 模拟的接口耗时（毫秒）
+    @Value("${sky.geo.stub.latency-millis:0}")
+    private long latencyMillis;
+
+    @Override
+    public String geocode(String address) {
+        simulateLatency();
+        int hash = address.hashCode();
+        double lat = baseLat + offset(hash);
+        double lng = baseLng + offset(hash >>> 16 | hash << 16);
+        return String.format("%.6f,%.6f", lat, lng);
+    }
+
+    @Override
+    public Integer drivingDistance(String origin, String destination) {
+        simulateLatency();
+        String[] from = origin.split(",");
+        String[] to = destination.split(",");
+        double lat1 = Math.toRadians(Double.parseDouble(from[0]));
+        double lat2 = Math.toRadians(Double.parseDouble(to[0]));
+        double deltaLat = lat2 - lat1;
+        double deltaLng = Math.toRadians(Double.parseDouble(to[1]) - Double.parseDouble(from[1]));
+
+        // haversine公式计算球面距离
+        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(deltaLng / 2) * Math.sin(deltaLng / 2);
+        double distance = 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return (int) Math.round(distance * ROUTE_FACTOR);
+    }
+
+    private double offset(int hash) {
+        return ((hash & 0xFFFF) / (double) 0xFFFF * 2 - 1) * spread;
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.sky.mapper;
+
+import com.sky.entity.DailyBusinessStats;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Mapper
+public interface DailyBusinessStatsMapper {
+
+    /**
+     * 在已有的统计数据上累加增量，返回受影响的行数（该日期没有统计数据时为0）
+     * @param delta
+     * @return
+     */
+    int increment(DailyBusinessStats delta);
+
+    /**
+     * 插入统计数据，该日期已存在时在原有数据上累加
+     * @param delta
+     */
+    void insertOrIncrement(DailyBusinessStats delta);
+
+    /**
+     * 插入统计数据，该日期已存在时覆盖原有数据
+     * @param stats
+     */
+    void upsert(DailyBusinessStats stats);
+
+    /**
+     * 锁定指定日期区间内的统计数据（包括区间内尚不存在的日期），直到事务结束
+     * @param begin
+     * @param end
+     * @return
+     */
+    List<LocalDate> lockByDateRange(LocalDate begin, LocalDate end);
+
+    /**
+     * 查询指定日期区间内的统计数据
+     * @param begin
+     * @param end
+     * @return
+     */
+    List<DailyBusinessStats> listByDateRange(LocalDate begin, LocalDate end);
+}
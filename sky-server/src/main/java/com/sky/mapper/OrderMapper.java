@@ -2,10 +2,12 @@ package com.sky.mapper;
 
 import com.github.pagehelper.Page;
 import com.sky.dto.GoodsSalesDTO;
+import com.sky.dto.OrderDailyStatisticsDTO;
 import com.sky.dto.OrdersPageQueryDTO;
 import com.sky.entity.Orders;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -34,6 +36,20 @@ public interface OrderMapper {
      */
     void update(Orders orders);
 
+    /**
+     * 支付成功，仅当订单仍为待付款时修改订单状态、支付状态、结账时间
+     * @param orders
+     * @return 修改的行数，为0时说明订单已处理过
+     */
+    int updatePaid(Orders orders);
+
+    /**
+     * 已取消且未支付的订单收到支付成功通知时，将支付状态标记为已支付，用于人工退款
+     * @param id
+     * @return 修改的行数，订单不是已取消且未支付的状态时为0
+     */
+    int updatePaidAfterCancel(Long id);
+
     /**
      * 订单分页查询
      * @param ordersPageQueryDTO
@@ -41,6 +57,20 @@ public interface OrderMapper {
      */
     Page<Orders> pageQuery(OrdersPageQueryDTO ordersPageQueryDTO);
 
+    /**
+     * 订单游标分页查询，按下单时间、id倒序，从上一页最后一条订单之后开始查询，多返回一条用于判断是否还有下一页
+     * @param ordersPageQueryDTO
+     * @return
+     */
+    List<Orders> pageQueryByKeyset(OrdersPageQueryDTO ordersPageQueryDTO);
+
+    /**
+     * 按分页查询的条件统计订单数量
+     * @param ordersPageQueryDTO
+     * @return
+     */
+    Long countByQuery(OrdersPageQueryDTO ordersPageQueryDTO);
+
     /**
      * 根据主键查询订单数据
      * @param id
@@ -66,6 +96,24 @@ public interface OrderMapper {
     @Select("select * from orders where status = #{status} and order_time < #{orderTime}")
     List<Orders> getByStatusAndOderTimeLT(Integer status, LocalDateTime orderTime);
 
+    /**
+     * 按下单时间顺序锁定一批指定状态、下单时间早于指定时间的订单，只查询批量修改状态需要的字段
+     * @param status
+     * @param orderTime
+     * @param limit
+     * @return
+     */
+    List<Orders> lockByStatusAndOrderTimeLT(Integer status, LocalDateTime orderTime, int limit);
+
+    /**
+     * 批量修改订单状态，只修改当前状态为fromStatus的订单
+     * @param ids
+     * @param fromStatus
+     * @param orders 修改后的状态、取消原因、取消时间、拒单原因、支付状态、送达时间，为null的字段不修改
+     * @return 修改的行数
+     */
+    int updateStatusByIds(List<Long> ids, Integer fromStatus, Orders orders);
+
     /**
      * 根据动态条件统计营业额数据
      * @param map
@@ -87,4 +135,20 @@ public interface OrderMapper {
      * @return
      */
     List<GoodsSalesDTO> getSalesTop10(LocalDateTime begin, LocalDateTime end);
+
+    /**
+     * 按天、按订单状态分组统计指定时间区间内的订单数量和金额
+     * @param begin
+     * @param end
+     * @return
+     */
+    List<OrderDailyStatisticsDTO> getDailyStatistics(LocalDateTime begin, LocalDateTime end);
+
+    /**
+     * 流式查询指定时间区间内的订单，逐行交给handler处理，不在内存中保留整个结果集
+     * @param begin
+     * @param end
+     * @param handler
+     */
+    void listByOrderTime(LocalDateTime begin, LocalDateTime end, ResultHandler<Orders> handler);
 }
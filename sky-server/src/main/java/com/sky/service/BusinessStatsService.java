@@ -0,0 +1,64 @@
+package com.sky.service;
+
+import com.sky.entity.DailyBusinessStats;
+import com.sky.entity.Orders;
+import com.sky.entity.User;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+public interface BusinessStatsService {
+
+    /**
+     * 用户下单，累加订单总数，在事务中调用时事务提交后再累加
+     * @param orders
+     */
+    void recordOrderSubmitted(Orders orders);
+
+    /**
+     * 订单完成，累加营业额和有效订单数
+     * @param ordersDB 完成前的订单数据
+     */
+    void recordOrderCompleted(Orders ordersDB);
+
+    /**
+     * 订单取消，累加已取消订单数，已完成的订单被取消时扣减营业额和有效订单数
+     * @param ordersDB 取消前的订单数据
+     */
+    void recordOrderCancelled(Orders ordersDB);
+
+    /**
+     * 批量完成订单，按下单日期合并后累加营业额和有效订单数，每个日期只更新一次物化表
+     * @param ordersList 完成前的订单数据
+     */
+    void recordOrdersCompleted(List<Orders> ordersList);
+
+    /**
+     * 批量取消订单，按下单日期合并后累加已取消订单数，每个日期只更新一次物化表
+     * @param ordersList 取消前的订单数据
+     */
+    void recordOrdersCancelled(List<Orders> ordersList);
+
+    /**
+     * 新用户注册，累加新增用户数
+     * @param user
+     */
+    void recordUserRegistered(User user);
+
+    /**
+     * 根据原始订单、用户数据重新计算指定日期区间内的统计数据并覆盖物化表
+     * @param begin
+     * @param end
+     */
+    void reconcile(LocalDate begin, LocalDate end);
+
+    /**
+     * 查询指定日期区间内每天的营业数据，历史日期读取物化表，当天的数据实时统计
+     * 返回结果包含区间内的每一天
+     * @param begin
+     * @param end
+     * @return
+     */
+    Map<LocalDate, DailyBusinessStats> getDailyStats(LocalDate begin, LocalDate end);
+}
@@ -39,6 +39,13 @@ public interface DishService {
      */
     DishVO getByIdWithFlavor(Long id);
 
+    /**
+     * 根据id查询菜品，不包含口味
+     * @param id
+     * @return
+     */
+    Dish getById(Long id);
+
     /**
      * 根据id修改菜品基本信息和对应的口味信息
      * @param dishDTO
@@ -0,0 +1,14 @@
+package com.sky.service;
+
+import com.sky.entity.AddressBook;
+
+public interface GeoService {
+
+    /**
+     * 计算店铺到收货地址的配送距离
+     * 店铺坐标、收货地址坐标和路线距离均有缓存，命中时不访问外部接口
+     * @param addressBook
+     * @return 距离（米）
+     */
+    int getDeliveryDistance(AddressBook addressBook);
+}
@@ -7,6 +7,9 @@ import com.sky.vo.OrderStatisticsVO;
 import com.sky.vo.OrderSubmitVO;
 import com.sky.vo.OrderVO;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 public interface OrderService {
 
     /**
@@ -31,6 +34,7 @@ public interface OrderService {
 
     /**
      * 订单分页查询
+     * keyset为true时使用游标分页，返回CursorPageResult
      * @param ordersPageQueryDTO
      * @return
      */
@@ -96,4 +100,27 @@ public interface OrderService {
      * @param id
      */
     void reminder(Long id);
+
+    /**
+     * 取消支付超时的订单，订单不是待付款状态时不做处理
+     * @param id
+     * @return 是否取消了订单
+     */
+    boolean cancelTimeoutOrder(Long id);
+
+    /**
+     * 批量取消支付超时的订单，单次最多处理limit条
+     * @param orderTime 下单时间早于该时间的待付款订单视为超时
+     * @param limit
+     * @return 本批次取消的订单id
+     */
+    List<Long> cancelTimeoutOrders(LocalDateTime orderTime, int limit);
+
+    /**
+     * 批量完成一直派送中的订单，单次最多处理limit条
+     * @param orderTime 下单时间早于该时间的派送中订单自动完成
+     * @param limit
+     * @return 本批次完成的订单id
+     */
+    List<Long> completeDeliveryOrders(LocalDateTime orderTime, int limit);
 }
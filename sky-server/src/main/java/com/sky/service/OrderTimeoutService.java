@@ -0,0 +1,19 @@
+package com.sky.service;
+
+import java.time.LocalDateTime;
+
+public interface OrderTimeoutService {
+
+    /**
+     * 订单加入支付超时队列，到期后仍未支付的订单自动取消
+     * @param orderId
+     * @param orderTime 下单时间，超时时间从下单时间开始计算
+     */
+    void schedule(Long orderId, LocalDateTime orderTime);
+
+    /**
+     * 订单移出支付超时队列，订单支付成功或取消后调用
+     * @param orderId
+     */
+    void remove(Long orderId);
+}
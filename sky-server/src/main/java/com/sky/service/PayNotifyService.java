@@ -0,0 +1,12 @@
+package com.sky.service;
+
+public interface PayNotifyService {
+
+    /**
+     * 接收支付成功通知：按微信支付交易号去重后写入redis队列，由后台线程异步修改订单状态
+     * @param outTradeNo 商户平台订单号
+     * @param transactionId 微信支付交易号
+     * @return 是否为新的通知，重复的通知返回false
+     */
+    boolean accept(String outTradeNo, String transactionId);
+}
@@ -0,0 +1,38 @@
+package com.sky.service;
+
+import com.sky.vo.ReportExportJobVO;
+
+import java.io.File;
+import java.time.LocalDate;
+
+public interface ReportExportService {
+
+    /**
+     * 提交运营数据报表导出任务，相同日期区间和类型的任务在有效期内复用已导出的文件，包含今天的日期区间每次重新导出
+     * @param begin
+     * @param end
+     * @param detail
+     * @return
+     */
+    ReportExportJobVO submit(LocalDate begin, LocalDate end, boolean detail);
+
+    /**
+     * 查询导出任务的状态和进度
+     * @param jobId
+     * @return
+     */
+    ReportExportJobVO getJob(String jobId);
+
+    /**
+     * 获取已完成的导出任务的文件并登记一次下载，下载期间文件不会被清理，下载结束后必须调用releaseFile
+     * @param jobId
+     * @return
+     */
+    File acquireFile(String jobId);
+
+    /**
+     * 下载结束，释放acquireFile登记的下载
+     * @param jobId
+     */
+    void releaseFile(String jobId);
+}
@@ -5,8 +5,10 @@ import com.sky.vo.SalesTop10ReportVO;
 import com.sky.vo.TurnoverReportVO;
 import com.sky.vo.UserReportVO;
 
-import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.util.function.IntConsumer;
 
 public interface ReportService {
 
@@ -44,7 +46,20 @@ public interface ReportService {
 
     /**
      * 导出运营数据报表
-     * @param response
+     * @param begin 开始日期
+     * @param end 结束日期
+     * @param detail 是否导出订单明细
+     * @param out 输出流
      */
-    void exportBusinessData(HttpServletResponse response);
+    void exportBusinessData(LocalDate begin, LocalDate end, boolean detail, OutputStream out) throws IOException;
+
+    /**
+     * 导出运营数据报表，并通过progress回调报告导出进度（0-100）
+     * @param begin 开始日期
+     * @param end 结束日期
+     * @param detail 是否导出订单明细
+     * @param out 输出流
+     * @param progress 进度回调
+     */
+    void exportBusinessData(LocalDate begin, LocalDate end, boolean detail, OutputStream out, IntConsumer progress) throws IOException;
 }
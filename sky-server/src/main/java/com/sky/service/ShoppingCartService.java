@@ -34,4 +34,24 @@ public interface ShoppingCartService {
      * @return
      */
     void subShoppingCart(ShoppingCartDTO shoppingCartDTO);
+
+    /**
+     * 查询指定用户的购物车
+     * @param userId
+     * @return
+     */
+    List<ShoppingCart> list(Long userId);
+
+    /**
+     * 批量加入购物车，已存在的商品累加数量
+     * @param userId
+     * @param shoppingCarts
+     */
+    void addAll(Long userId, List<ShoppingCart> shoppingCarts);
+
+    /**
+     * 清空指定用户的购物车，在事务中调用时，事务提交后才清空
+     * @param userId
+     */
+    void clean(Long userId);
 }
@@ -0,0 +1,276 @@
+package com.sky.service.impl;
+
+import com.sky.dto.OrderDailyStatisticsDTO;
+import com.sky.dto.UserDailyStatisticsDTO;
+import com.sky.entity.DailyBusinessStats;
+import com.sky.entity.Orders;
+import com.sky.entity.User;
+import com.sky.mapper.DailyBusinessStatsMapper;
+import com.sky.mapper.OrderMapper;
+import com.sky.mapper.UserMapper;
+import com.sky.service.BusinessStatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Service
+@Slf4j
+public class BusinessStatsServiceImpl implements BusinessStatsService {
+
+    @Autowired
+    private DailyBusinessStatsMapper dailyBusinessStatsMapper;
+    @Autowired
+    private OrderMapper orderMapper;
+    @Autowired
+    private UserMapper userMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 用户下单，累加订单总数
+     * 在事务中调用时，事务提交后再累加，下单事务不持有当天统计数据的行锁，各用户下单不会互相等待
+     * @param orders
+     */
+    @Override
+    public void recordOrderSubmitted(Orders orders) {
+        DailyBusinessStats delta = DailyBusinessStats.empty(orders.getOrderTime().toLocalDate());
+        delta.setTotalOrderCount(1);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    // 原事务的连接此时尚未恢复自动提交，需要在新事务中执行
+                    try {
+                        requiresNewTransaction().executeWithoutResult(status -> increment(delta));
+                    } catch (Exception e) {
+                        // 订单已提交，累加失败不影响下单结果，由每晚的对账任务修正
+                        log.warn("累加订单总数失败，订单号：{}", orders.getNumber(), e);
+                    }
+                }
+            });
+        } else {
+            increment(delta);
+        }
+    }
+
+    /**
+     * 订单完成，累加营业额和有效订单数
+     * @param ordersDB 完成前的订单数据
+     */
+    @Override
+    public void recordOrderCompleted(Orders ordersDB) {
+        DailyBusinessStats delta = DailyBusinessStats.empty(ordersDB.getOrderTime().toLocalDate());
+        delta.setValidOrderCount(1);
+        delta.setTurnover(amountOf(ordersDB));
+        increment(delta);
+    }
+
+    /**
+     * 订单取消，累加已取消订单数，已完成的订单被取消时扣减营业额和有效订单数
+     * @param ordersDB 取消前的订单数据
+     */
+    @Override
+    public void recordOrderCancelled(Orders ordersDB) {
+        DailyBusinessStats delta = DailyBusinessStats.empty(ordersDB.getOrderTime().toLocalDate());
+        delta.setCancelledOrderCount(1);
+        if (Orders.COMPLETED.equals(ordersDB.getStatus())) {
+            delta.setValidOrderCount(-1);
+            delta.setTurnover(amountOf(ordersDB).negate());
+        }
+        increment(delta);
+    }
+
+    /**
+     * 批量完成订单，按下单日期合并后累加营业额和有效订单数，每个日期只更新一次物化表
+     * @param ordersList 完成前的订单数据
+     */
+    @Override
+    public void recordOrdersCompleted(List<Orders> ordersList) {
+        Map<LocalDate, DailyBusinessStats> deltaMap = new TreeMap<>();
+        for (Orders ordersDB : ordersList) {
+            DailyBusinessStats delta = deltaOf(deltaMap, ordersDB);
+            delta.setValidOrderCount(delta.getValidOrderCount() + 1);
+            delta.setTurnover(delta.getTurnover().add(amountOf(ordersDB)));
+        }
+        deltaMap.values().forEach(this::increment);
+    }
+
+    /**
+     * 批量取消订单，按下单日期合并后累加已取消订单数，每个日期只更新一次物化表
+     * @param ordersList 取消前的订单数据
+     */
+    @Override
+    public void recordOrdersCancelled(List<Orders> ordersList) {
+        Map<LocalDate, DailyBusinessStats> deltaMap = new TreeMap<>();
+        for (Orders ordersDB : ordersList) {
+            DailyBusinessStats delta = deltaOf(deltaMap, ordersDB);
+            delta.setCancelledOrderCount(delta.getCancelledOrderCount() + 1);
+            if (Orders.COMPLETED.equals(ordersDB.getStatus())) {
+                delta.setValidOrderCount(delta.getValidOrderCount() - 1);
+                delta.setTurnover(delta.getTurnover().subtract(amountOf(ordersDB)));
+            }
+        }
+        deltaMap.values().forEach(this::increment);
+    }
+
+    /**
+     * 新用户注册，累加新增用户数
+     * @param user
+     */
+    @Override
+    public void recordUserRegistered(User user) {
+        DailyBusinessStats delta = DailyBusinessStats.empty(user.getCreateTime().toLocalDate());
+        delta.setNewUsers(1);
+        increment(delta);
+    }
+
+    /**
+     * 根据原始订单、用户数据重新计算指定日期区间内的统计数据并覆盖物化表
+     * @param begin
+     * @param end
+     */
+    @Override
+    @Transactional
+    public void reconcile(LocalDate begin, LocalDate end) {
+        // 先锁定区间内的统计数据，对账期间的增量更新等待对账完成后再累加，
+        // 锁定之后才读取原始数据，统计结果包含锁定前已提交的全部修改
+        dailyBusinessStatsMapper.lockByDateRange(begin, end);
+        Map<LocalDate, DailyBusinessStats> statsMap = compute(begin, end);
+        for (DailyBusinessStats stats : statsMap.values()) {
+            dailyBusinessStatsMapper.upsert(stats);
+        }
+        log.info("营业数据对账完成：{} 至 {}", begin, end);
+    }
+
+    /**
+     * 查询指定日期区间内每天的营业数据，历史日期读取物化表，当天的数据实时统计
+     * @param begin
+     * @param end
+     * @return
+     */
+    @Override
+    public Map<LocalDate, DailyBusinessStats> getDailyStats(LocalDate begin, LocalDate end) {
+        Map<LocalDate, DailyBusinessStats> result = new HashMap<>();
+        LocalDate today = LocalDate.now();
+
+        // 历史日期：直接读取物化表，每天一行
+        if (begin.isBefore(today)) {
+            LocalDate historyEnd = end.isBefore(today) ? end : today.minusDays(1);
+            List<DailyBusinessStats> list = dailyBusinessStatsMapper.listByDateRange(begin, historyEnd);
+            for (DailyBusinessStats stats : list) {
+                result.put(stats.getStatDate(), stats);
+            }
+
+            // 物化表中缺失的日期（例如上线之前的历史数据），从原始数据补算并回填
+            LocalDate missingBegin = null;
+            LocalDate missingEnd = null;
+            for (LocalDate date = begin; !date.isAfter(historyEnd); date = date.plusDays(1)) {
+                if (!result.containsKey(date)) {
+                    if (missingBegin == null) {
+                        missingBegin = date;
+                    }
+                    missingEnd = date;
+                }
+            }
+            if (missingBegin != null) {
+                log.info("营业数据物化表缺失，从原始数据补算：{} 至 {}", missingBegin, missingEnd);
+                Map<LocalDate, DailyBusinessStats> computed = compute(missingBegin, missingEnd);
+                for (DailyBusinessStats stats : computed.values()) {
+                    if (!result.containsKey(stats.getStatDate())) {
+                        dailyBusinessStatsMapper.upsert(stats);
+                        result.put(stats.getStatDate(), stats);
+                    }
+                }
+            }
+        }
+
+        // 当天（及以后）的数据还在变化，从原始数据实时统计
+        if (!end.isBefore(today)) {
+            LocalDate liveBegin = begin.isBefore(today) ? today : begin;
+            result.putAll(compute(liveBegin, end));
+        }
+
+        return result;
+    }
+
+    /**
+     * 根据原始订单、用户数据统计指定日期区间内每天的营业数据，没有数据的日期各项为0
+     * @param begin
+     * @param end
+     * @return
+     */
+    private Map<LocalDate, DailyBusinessStats> compute(LocalDate begin, LocalDate end) {
+        LocalDateTime beginTime = LocalDateTime.of(begin, LocalTime.MIN);
+        LocalDateTime endTime = LocalDateTime.of(end.plusDays(1), LocalTime.MIN);
+        LocalDateTime now = LocalDateTime.now();
+
+        Map<LocalDate, DailyBusinessStats> result = new HashMap<>();
+        for (LocalDate date = begin; !date.isAfter(end); date = date.plusDays(1)) {
+            DailyBusinessStats stats = DailyBusinessStats.empty(date);
+            stats.setUpdateTime(now);
+            result.put(date, stats);
+        }
+
+        // 一次分组查询得到每天各状态的订单数据
+        List<OrderDailyStatisticsDTO> orderStatistics = orderMapper.getDailyStatistics(beginTime, endTime);
+        for (OrderDailyStatisticsDTO dto : orderStatistics) {
+            DailyBusinessStats stats = result.get(dto.getOrderDate());
+            stats.setTotalOrderCount(stats.getTotalOrderCount() + dto.getOrderCount());
+            if (Orders.COMPLETED.equals(dto.getStatus())) {
+                stats.setValidOrderCount(dto.getOrderCount());
+                stats.setTurnover(dto.getAmount() == null ? BigDecimal.ZERO : dto.getAmount());
+            } else if (Orders.CANCELLED.equals(dto.getStatus())) {
+                stats.setCancelledOrderCount(dto.getOrderCount());
+            }
+        }
+
+        // 一次分组查询得到每天的新增用户数
+        List<UserDailyStatisticsDTO> userStatistics = userMapper.getDailyNewUsers(beginTime, endTime);
+        for (UserDailyStatisticsDTO dto : userStatistics) {
+            result.get(dto.getCreateDate()).setNewUsers(dto.getNewUsers());
+        }
+
+        return result;
+    }
+
+    /**
+     * 累加统计增量
+     * 历史日期在物化表中没有数据时不插入，避免产生不完整的统计行，读取时会从原始数据补算
+     * @param delta
+     */
+    private void increment(DailyBusinessStats delta) {
+        delta.setUpdateTime(LocalDateTime.now());
+        if (dailyBusinessStatsMapper.increment(delta) == 0 && !delta.getStatDate().isBefore(LocalDate.now())) {
+            dailyBusinessStatsMapper.insertOrIncrement(delta);
+        }
+    }
+
+    private DailyBusinessStats deltaOf(Map<LocalDate, DailyBusinessStats> deltaMap, Orders orders) {
+        return deltaMap.computeIfAbsent(orders.getOrderTime().toLocalDate(), DailyBusinessStats::empty);
+    }
+
+    private TransactionTemplate requiresNewTransaction() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transactionTemplate;
+    }
+
+    private BigDecimal amountOf(Orders orders) {
+        return orders.getAmount() == null ? BigDecimal.ZERO : orders.getAmount();
+    }
+}
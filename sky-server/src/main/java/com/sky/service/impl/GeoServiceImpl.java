@@ -0,0 +1,137 @@
+package com.sky.service.impl;
+
+import com.sky.constant.MessageConstant;
+import com.sky.entity.AddressBook;
+import com.sky.exception.OrderBusinessException;
+import com.sky.geo.Geocoder;
+import com.sky.service.GeoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 配送距离计算
+ * 店铺坐标在启动时解析一次；收货地址坐标按规范化后的地址文本缓存在redis，
+ * 地址修改后文本变化会自然使用新的key；路线距离按起终点坐标缓存在redis
+ */
+@Service
+@Slf4j
+public class GeoServiceImpl implements GeoService {
+
+    // 收货地址坐标缓存key前缀，key = geo_address:地址md5
+    private static final String ADDRESS_KEY_PREFIX = "geo_address:";
+    // 路线距离缓存key前缀，key = geo_route:起点坐标:终点坐标
+    private static final String ROUTE_KEY_PREFIX = "geo_route:";
+
+    @Value("${sky.shop.address}")
+    private String shopAddress;
+    // 收货地址坐标的缓存时间（天）
+    @Value("${sky.geo.address-ttl-days:30}")
+    private long addressTtlDays;
+    // 路线距离的缓存时间（天）
+    @Value("${sky.geo.route-ttl-days:7}")
+    private long routeTtlDays;
+
+    @Autowired
+    private Geocoder geocoder;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 店铺坐标
+    private volatile String shopLocation;
+
+    // 缓存命中统计
+    private final AtomicLong addressHits = new AtomicLong();
+    private final AtomicLong addressMisses = new AtomicLong();
+    private final AtomicLong routeHits = new AtomicLong();
+    private final AtomicLong routeMisses = new AtomicLong();
+
+    /**
+     * 启动时解析店铺坐标，失败时不影响启动，在第一次计算配送距离时重试
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            getShopLocation();
+            log.info("店铺坐标：{}", shopLocation);
+        } catch (OrderBusinessException e) {
+            log.warn("启动时解析店铺地址失败：{}", shopAddress);
+        }
+    }
+
+    @Override
+    public int getDeliveryDistance(AddressBook addressBook) {
+        String origin = getShopLocation();
+        String destination = getAddressLocation(addressBook.getCityName()
+                + addressBook.getDistrictName() + addressBook.getDetail());
+
+        String key = ROUTE_KEY_PREFIX + origin + ":" + destination;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        if (cached != null) {
+            routeHits.incrementAndGet();
+            return Integer.parseInt(cached);
+        }
+        routeMisses.incrementAndGet();
+
+        Integer distance = geocoder.drivingDistance(origin, destination);
+        if (distance == null) {
+            throw new OrderBusinessException(MessageConstant.ROUTE_PLANNING_FAILED);
+        }
+        stringRedisTemplate.opsForValue().set(key, String.valueOf(distance), routeTtlDays, TimeUnit.DAYS);
+        log.debug("配送距离缓存命中统计，地址：{}/{}，路线：{}/{}",
+                addressHits.get(), addressHits.get() + addressMisses.get(),
+                routeHits.get(), routeHits.get() + routeMisses.get());
+        return distance;
+    }
+
+    private String getShopLocation() {
+        if (shopLocation == null) {
+            synchronized (this) {
+                if (shopLocation == null) {
+                    String location = geocoder.geocode(shopAddress);
+                    if (location == null) {
+                        throw new OrderBusinessException(MessageConstant.SHOP_ADDRESS_PARSE_FAILED);
+                    }
+                    shopLocation = location;
+                }
+            }
+        }
+        return shopLocation;
+    }
+
+    private String getAddressLocation(String address) {
+        String key = ADDRESS_KEY_PREFIX + DigestUtils.md5DigestAsHex(normalize(address).getBytes(StandardCharsets.UTF_8));
+        String location = stringRedisTemplate.opsForValue().get(key);
+        if (location != null) {
+            addressHits.incrementAndGet();
+            return location;
+        }
+        addressMisses.incrementAndGet();
+
+        location = geocoder.geocode(address);
+        if (location == null) {
+            throw new OrderBusinessException(MessageConstant.ADDRESS_PARSE_FAILED);
+        }
+        stringRedisTemplate.opsForValue().set(key, location, addressTtlDays, TimeUnit.DAYS);
+        return location;
+    }
+
+    /**
+     * 规范化地址文本：去掉所有空白字符，全角括号转为半角
+     * @param address
+     * @return
+     */
+    private String normalize(String address) {
+        return address.replaceAll("\\s+", "")
+                .replace('（', '(')
+                .replace('）', ')');
+    }
+}
@@ -1,7 +1,5 @@
 package com.sky.service.impl;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.github.pagehelper.Page;
 import com.github.pagehelper.PageHelper;
@@ -10,55 +8,70 @@ import com.sky.context.BaseContext;
 import com.sky.controller.admin.OrderController;
 import com.sky.dto.*;
 import com.sky.entity.*;
+import com.sky.event.OrderCancelledEvent;
+import com.sky.event.OrderPaidEvent;
+import com.sky.event.OrderReminderEvent;
 import com.sky.exception.AddressBookBusinessException;
 import com.sky.exception.OrderBusinessException;
 import com.sky.exception.ShoppingCartBusinessException;
 import com.sky.mapper.*;
+import com.sky.result.CursorPageResult;
 import com.sky.result.PageResult;
+import com.sky.service.BusinessStatsService;
+import com.sky.service.GeoService;
 import com.sky.service.OrderService;
-import com.sky.utils.HttpClientUtil;
+import com.sky.service.OrderTimeoutService;
+import com.sky.service.ShoppingCartService;
+import com.sky.utils.SnowflakeIdGenerator;
 import com.sky.utils.WeChatPayUtil;
 import com.sky.vo.OrderPaymentVO;
 import com.sky.vo.OrderStatisticsVO;
 import com.sky.vo.OrderSubmitVO;
 import com.sky.vo.OrderVO;
-import com.sky.websocket.WebSocketServer;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class OrderServiceImpl implements OrderService {
 
-    @Value("${sky.shop.address}")
-    private String shopAddress;
-
-    @Value("${sky.baidu.ak}")
-    private String ak;
+    // 支付超时自动取消的原因
+    private static final String TIMEOUT_CANCEL_REASON = "支付超时，自动取消";
 
     @Autowired
     private OrderMapper orderMapper;
     @Autowired
+    private GeoService geoService;
+    @Autowired
+    private SnowflakeIdGenerator orderNumberGenerator;
+    @Autowired
     private OrderDetailMapper orderDetailMapper;
     @Autowired
     private AddressBookMapper addressBookMapper;
     @Autowired
-    private ShoppingCartMapper shoppingCartMapper;
+    private ShoppingCartService shoppingCartService;
     @Autowired
     private UserMapper userMapper;
     @Autowired
     private WeChatPayUtil weChatPayUtil;
     @Autowired
-    private WebSocketServer webSocketServer;
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired
+    private BusinessStatsService businessStatsService;
+    @Autowired
+    private OrderTimeoutService orderTimeoutService;
 
     /**
      * 用户下单
@@ -79,17 +92,14 @@ public class OrderServiceImpl implements OrderService {
         // 获得当前用户id，及购物车数据
         Long userId = BaseContext.getCurrentId();
 
-        ShoppingCart shoppingCart = new ShoppingCart();
-        shoppingCart.setUserId(userId);
-        List<ShoppingCart> shoppingCartList = shoppingCartMapper.list(shoppingCart);
+        List<ShoppingCart> shoppingCartList = shoppingCartService.list(userId);
         if (shoppingCartList == null || shoppingCartList.isEmpty()) {
             // 抛出业务异常
             throw new ShoppingCartBusinessException(MessageConstant.SHOPPING_CART_IS_NULL);
         }
 
         //检查用户的收货地址是否超出配送范围
-        checkOutOfRange(addressBook.getCityName() +
-                addressBook.getDistrictName()+addressBook.getDetail());
+        checkOutOfRange(addressBook);
 
         // 2. 向订单表插入1条数据
         Orders orders = new Orders();
@@ -98,13 +108,19 @@ public class OrderServiceImpl implements OrderService {
         orders.setOrderTime(LocalDateTime.now());
         orders.setPayStatus(Orders.UN_PAID);
         orders.setStatus(Orders.PENDING_PAYMENT);
-        orders.setNumber(String.valueOf(System.currentTimeMillis()));
+        orders.setNumber(String.valueOf(orderNumberGenerator.nextId()));
         orders.setPhone(addressBook.getPhone());
         orders.setConsignee(addressBook.getConsignee());
         orders.setAddress(addressBook.getDetail());
 
         orderMapper.insert(orders);
 
+        // 累加当天的订单总数
+        businessStatsService.recordOrderSubmitted(orders);
+
+        // 加入支付超时队列，到期未支付自动取消
+        orderTimeoutService.schedule(orders.getId(), orders.getOrderTime());
+
         // 3. 向订单明细表插入n条数据, 选择批量插入
         List<OrderDetail> orderDetails = new ArrayList<>();
 
@@ -118,8 +134,8 @@ public class OrderServiceImpl implements OrderService {
         // 批量插入
         orderDetailMapper.insertBatch(orderDetails);
 
-        // 4. 清空当前用户的购物车数据
-        shoppingCartMapper.deleteByUserId(userId);
+        // 4. 清空当前用户的购物车数据，事务提交后清空
+        shoppingCartService.clean(userId);
 
         // 5. 封装VO返回结果
         OrderSubmitVO orderSubmitVO = OrderSubmitVO.builder()
@@ -174,6 +190,7 @@ public class OrderServiceImpl implements OrderService {
 
     /**
      * 支付成功，修改订单状态
+     * 只有待付款的订单才会被修改，重复调用时不会重复修改和推送来单提醒
      *
      * @param outTradeNo
      */
@@ -181,6 +198,9 @@ public class OrderServiceImpl implements OrderService {
 
         // 根据订单号查询订单
         Orders ordersDB = orderMapper.getByNumber(outTradeNo);
+        if (ordersDB == null) {
+            throw new OrderBusinessException(MessageConstant.ORDER_NOT_FOUND);
+        }
 
         // 根据订单id更新订单的状态、支付方式、支付状态、结账时间
         Orders orders = Orders.builder()
@@ -190,16 +210,24 @@ public class OrderServiceImpl implements OrderService {
                 .checkoutTime(LocalDateTime.now())
                 .build();
 
-        orderMapper.update(orders);
+        if (orderMapper.updatePaid(orders) == 0) {
+            // 订单已被取消（例如支付超时自动取消）后才收到支付成功通知，用户已付款但订单不会被处理，
+            // 将订单标记为已支付，需要人工退款
+            if (orderMapper.updatePaidAfterCancel(ordersDB.getId()) > 0) {
+                log.error("订单{}已取消但收到支付成功通知，已标记为已支付，需要人工退款，订单id：{}，金额：{}",
+                        outTradeNo, ordersDB.getId(), ordersDB.getAmount());
+                return;
+            }
+            // 订单已支付，忽略重复的支付通知
+            log.info("订单{}不是待付款状态，忽略支付成功通知", outTradeNo);
+            return;
+        }
 
-        // 通过webSocket向客户端浏览器推送消息 type orderId content
-        Map map = new HashMap();
-        map.put("type", 1); // 1表示来单提醒，2表示用户催单
-        map.put("orderId", ordersDB.getId());
-        map.put("content", "订单号：" + outTradeNo);
+        // 移出支付超时队列
+        orderTimeoutService.remove(ordersDB.getId());
 
-        String json = JSON.toJSONString(map);
-        webSocketServer.sendToAllClient(json);
+        // 发布支付成功事件，事务提交后异步推送来单提醒
+        eventPublisher.publishEvent(new OrderPaidEvent(ordersDB.getId(), outTradeNo));
     }
 
     /**
@@ -209,32 +237,72 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public PageResult pageQuery(OrdersPageQueryDTO ordersPageQueryDTO) {
+        if (Boolean.TRUE.equals(ordersPageQueryDTO.getKeyset())) {
+            return pageQueryByKeyset(ordersPageQueryDTO);
+        }
+
         PageHelper.startPage(ordersPageQueryDTO.getPage(), ordersPageQueryDTO.getPageSize());
 
         // 分页条件查询订单
         Page<Orders> page = orderMapper.pageQuery(ordersPageQueryDTO);
 
+        return new PageResult(page.getTotal(), toOrderVOList(page));
+    }
+
+    /**
+     * 订单游标分页查询，从上一页最后一条订单之后开始查询，查询耗时与页码深度无关
+     * @param ordersPageQueryDTO
+     * @return
+     */
+    private PageResult pageQueryByKeyset(OrdersPageQueryDTO ordersPageQueryDTO) {
+        List<Orders> ordersList = orderMapper.pageQueryByKeyset(ordersPageQueryDTO);
+
+        // 查询时多查了一条，多出的一条说明还有下一页
+        boolean hasMore = ordersList.size() > ordersPageQueryDTO.getPageSize();
+        if (hasMore) {
+            ordersList = ordersList.subList(0, ordersPageQueryDTO.getPageSize());
+        }
+
+        // 无限滚动的客户端不需要总记录数，可以跳过统计
+        long total = Boolean.TRUE.equals(ordersPageQueryDTO.getSkipCount())
+                ? -1 : orderMapper.countByQuery(ordersPageQueryDTO);
+
+        Orders last = ordersList.isEmpty() ? null : ordersList.get(ordersList.size() - 1);
+        return new CursorPageResult(total, toOrderVOList(ordersList), hasMore,
+                last == null ? null : last.getOrderTime(),
+                last == null ? null : last.getId());
+    }
+
+    /**
+     * 将订单转换为OrderVO，并填充订单明细
+     * @param ordersList
+     * @return
+     */
+    private List<OrderVO> toOrderVOList(List<Orders> ordersList) {
         // 构造OrderVO集合
         List<OrderVO> list = new ArrayList<>();
 
-        if (page != null && page.getTotal() > 0) {
-            for (Orders orders : page) {
+        if (ordersList != null && !ordersList.isEmpty()) {
+            // 一次查询当前页所有订单的订单详细数据，按订单id分组
+            // select * from order_detail where order_id in (?,?,?)
+            List<Long> orderIds = ordersList.stream().map(Orders::getId).collect(Collectors.toList());
+            Map<Long, List<OrderDetail>> orderDetailMap = orderDetailMapper.getByOrderIds(orderIds).stream()
+                    .collect(Collectors.groupingBy(OrderDetail::getOrderId));
+
+            for (Orders orders : ordersList) {
                 // 构造OrderVO
                 OrderVO orderVO = new OrderVO();
                 BeanUtils.copyProperties(orders, orderVO);
 
-                // 查询订单对应的订单详细数据
-                List<OrderDetail> orderDetails = orderDetailMapper.getByOrderId(orderVO.getId());
-
-                // 将查询到的订单详细数据添加到orderVO
-                orderVO.setOrderDetailList(orderDetails);
+                // 将订单对应的订单详细数据添加到orderVO
+                orderVO.setOrderDetailList(orderDetailMap.getOrDefault(orders.getId(), new ArrayList<>()));
 
                 // 添加OrderVO
                 list.add(orderVO);
             }
         }
 
-        return new PageResult(page.getTotal(), list);
+        return list;
     }
 
     /**
@@ -263,17 +331,25 @@ public class OrderServiceImpl implements OrderService {
      * @param id
      */
     @Override
+    @Transactional
     public void userCancel(Long id) {
         // 查询订单数据
-        Orders orders = orderMapper.getById(id);
+        Orders ordersDB = orderMapper.getById(id);
 
         // 校验订单是否存在
-        if (orders == null) {
+        if (ordersDB == null) {
             throw new OrderBusinessException(MessageConstant.ORDER_NOT_FOUND);
         }
 
         // 获取订单状态
-        Integer status = orders.getStatus();
+        Integer status = ordersDB.getStatus();
+
+        // 更新订单状态、取消原因、取消时间
+        Orders orders = Orders.builder()
+                .status(Orders.CANCELLED)
+                .cancelReason("用户取消")
+                .cancelTime(LocalDateTime.now())
+                .build();
 
         //订单状态 1待付款 2待接单 3已接单 4派送中 5已完成 6已取消
         if (status > Orders.TO_BE_CONFIRMED) {
@@ -297,12 +373,16 @@ public class OrderServiceImpl implements OrderService {
         }
         // 如果是待支付就只修改状态
 
-        // 更新订单状态、取消原因、取消时间
-        orders.setStatus(Orders.CANCELLED);
-        orders.setCancelReason("用户取消");
-        orders.setCancelTime(LocalDateTime.now());
+        // 条件更新，订单在查询后被超时取消或被接单时不做修改
+        updateStatus(ordersDB, orders);
 
-        orderMapper.update(orders);
+        // 累加已取消订单数
+        businessStatsService.recordOrderCancelled(ordersDB);
+
+        // 移出支付超时队列
+        orderTimeoutService.remove(ordersDB.getId());
+
+        eventPublisher.publishEvent(new OrderCancelledEvent(ordersDB.getId(), ordersDB.getNumber(), orders.getCancelReason()));
     }
 
     /**
@@ -329,8 +409,8 @@ public class OrderServiceImpl implements OrderService {
             shoppingCarts.add(shoppingCart);
         }
 
-        // 将订单数据批量添加到购物车表中
-        shoppingCartMapper.insertBatch(shoppingCarts);
+        // 将订单数据批量添加到购物车中
+        shoppingCartService.addAll(userId, shoppingCarts);
     }
 
     /**
@@ -391,6 +471,7 @@ public class OrderServiceImpl implements OrderService {
      * @param ordersRejectionDTO
      */
     @Override
+    @Transactional
     public void rejection(OrdersRejectionDTO ordersRejectionDTO) {
         // 拒单需要退款，根据订单id更新订单状态、拒单原因、取消时间
 
@@ -421,14 +502,19 @@ public class OrderServiceImpl implements OrderService {
 
         // 构造Orders
         Orders orders = Orders.builder()
-                .id(ordersRejectionDTO.getId())
                 .status(Orders.CANCELLED)
                 .rejectionReason(ordersRejectionDTO.getRejectionReason())
                 .cancelTime(LocalDateTime.now())
                 .build();
 
-        // 修改数据
-        orderMapper.update(orders);
+        // 修改数据，条件更新，订单在查询后被取消时不做修改
+        updateStatus(ordersDB, orders);
+
+        // 累加已取消订单数
+        businessStatsService.recordOrderCancelled(ordersDB);
+
+        eventPublisher.publishEvent(new OrderCancelledEvent(ordersDB.getId(), ordersDB.getNumber(),
+                ordersRejectionDTO.getRejectionReason()));
     }
 
     /**
@@ -436,6 +522,7 @@ public class OrderServiceImpl implements OrderService {
      * @param ordersCancelDTO
      */
     @Override
+    @Transactional
     public void adminCancel(OrdersCancelDTO ordersCancelDTO) {
         // 管理端取消订单需要退款，根据订单id更新订单状态、取消原因、取消时间
 
@@ -465,14 +552,22 @@ public class OrderServiceImpl implements OrderService {
 
         // 构造Orders
         Orders orders = Orders.builder()
-                .id(ordersCancelDTO.getId())
                 .status(Orders.CANCELLED)
                 .rejectionReason(ordersCancelDTO.getCancelReason())
                 .cancelTime(LocalDateTime.now())
                 .build();
 
-        // 修改数据
-        orderMapper.update(orders);
+        // 修改数据，条件更新，订单在查询后被超时取消或状态被修改时不做修改
+        updateStatus(ordersDB, orders);
+
+        // 移出支付超时队列
+        orderTimeoutService.remove(ordersDB.getId());
+
+        // 累加已取消订单数，已完成的订单被取消时扣减营业额
+        businessStatsService.recordOrderCancelled(ordersDB);
+
+        eventPublisher.publishEvent(new OrderCancelledEvent(ordersDB.getId(), ordersDB.getNumber(),
+                ordersCancelDTO.getCancelReason()));
     }
 
     /**
@@ -507,6 +602,7 @@ public class OrderServiceImpl implements OrderService {
      * 完成订单
      * @param id
      */
+    @Transactional
     public void complete(Long id) {
         // 根据id查询订单
         Orders ordersDB = orderMapper.getById(id);
@@ -521,73 +617,35 @@ public class OrderServiceImpl implements OrderService {
 
         // 构造Orders
         Orders orders = new Orders();
-        orders.setId(ordersDB.getId());
         // 更新订单状态,状态转为完成, 添加收获时间
         orders.setStatus(Orders.COMPLETED);
         orders.setDeliveryTime(LocalDateTime.now());
 
-        // 修改数据
-        orderMapper.update(orders);
+        // 修改数据，条件更新，订单在查询后被自动完成时不做修改
+        updateStatus(ordersDB, orders);
+
+        // 累加营业额和有效订单数
+        businessStatsService.recordOrderCompleted(ordersDB);
     }
 
     /**
-     * 检查客户的收货地址是否超出配送范围
-     * @param address
+     * 按查询时的订单状态条件修改订单，订单状态已被其他操作修改时抛出异常，
+     * 保证同一次状态变化只被处理一次，营业数据只累加一次
+     * @param ordersDB 修改前的订单数据
+     * @param orders 修改后的数据
      */
-    private void checkOutOfRange(String address) {
-        Map map = new HashMap();
-        map.put("address",shopAddress);
-        map.put("output","json");
-        map.put("ak",ak);
-
-        //获取店铺的经纬度坐标
-        String shopCoordinate = HttpClientUtil.doGet("https://api.map.baidu.com/geocoding/v3", map);
-
-        JSONObject jsonObject = JSON.parseObject(shopCoordinate);
-        if(!jsonObject.getString("status").equals("0")){
-            throw new OrderBusinessException("店铺地址解析失败");
-        }
-
-        //数据解析
-        JSONObject location = jsonObject.getJSONObject("result").getJSONObject("location");
-        String lat = location.getString("lat");
-        String lng = location.getString("lng");
-        //店铺经纬度坐标
-        String shopLngLat = lat + "," + lng;
-
-        map.put("address",address);
-        //获取用户收货地址的经纬度坐标
-        String userCoordinate = HttpClientUtil.doGet("https://api.map.baidu.com/geocoding/v3", map);
-
-        jsonObject = JSON.parseObject(userCoordinate);
-        if(!jsonObject.getString("status").equals("0")){
-            throw new OrderBusinessException("收货地址解析失败");
-        }
-
-        //数据解析
-        location = jsonObject.getJSONObject("result").getJSONObject("location");
-        lat = location.getString("lat");
-        lng = location.getString("lng");
-        //用户收货地址经纬度坐标
-        String userLngLat = lat + "," + lng;
-
-        map.put("origin",shopLngLat);
-        map.put("destination",userLngLat);
-        map.put("steps_info","0");
-
-        //路线规划
-        String json = HttpClientUtil.doGet("https://api.map.baidu.com/directionlite/v1/driving", map);
-
-        jsonObject = JSON.parseObject(json);
-        if(!jsonObject.getString("status").equals("0")){
-            throw new OrderBusinessException("配送路线规划失败");
+    private void updateStatus(Orders ordersDB, Orders orders) {
+        if (orderMapper.updateStatusByIds(Collections.singletonList(ordersDB.getId()), ordersDB.getStatus(), orders) == 0) {
+            throw new OrderBusinessException(MessageConstant.ORDER_STATUS_ERROR);
         }
+    }
 
-        //数据解析
-        JSONObject result = jsonObject.getJSONObject("result");
-        JSONArray jsonArray = (JSONArray) result.get("routes");
-        Integer distance = (Integer) ((JSONObject) jsonArray.get(0)).get("distance");
-
+    /**
+     * 检查客户的收货地址是否超出配送范围
+     * @param addressBook
+     */
+    private void checkOutOfRange(AddressBook addressBook) {
+        int distance = geoService.getDeliveryDistance(addressBook);
         if(distance > 5000){
             //配送距离超过5000米
             throw new OrderBusinessException(MessageConstant.OUT_OF_DELIVERY);
@@ -608,13 +666,96 @@ public class OrderServiceImpl implements OrderService {
             throw new OrderBusinessException(MessageConstant.ORDER_NOT_FOUND);
         }
 
-        // 通过webSocket向客户端浏览器推送消息 type orderId content
-        Map map = new HashMap();
-        map.put("type", 2); // 1表示来单提醒，2表示用户催单
-        map.put("orderId", ordersDB.getId());
-        map.put("content", "订单号：" + ordersDB.getNumber());
+        // 发布催单事件，异步推送催单提醒
+        eventPublisher.publishEvent(new OrderReminderEvent(ordersDB.getId(), ordersDB.getNumber()));
+    }
+
+    /**
+     * 取消支付超时的订单，订单不是待付款状态时不做处理
+     * @param id
+     * @return 是否取消了订单
+     */
+    @Override
+    @Transactional
+    public boolean cancelTimeoutOrder(Long id) {
+        Orders ordersDB = orderMapper.getById(id);
+        if (ordersDB == null || !Orders.PENDING_PAYMENT.equals(ordersDB.getStatus())) {
+            return false;
+        }
+
+        Orders orders = Orders.builder()
+                .status(Orders.CANCELLED)
+                .cancelReason(TIMEOUT_CANCEL_REASON)
+                .cancelTime(LocalDateTime.now())
+                .build();
+        // 条件更新，订单在查询后被支付时不会被取消
+        if (orderMapper.updateStatusByIds(Collections.singletonList(id), Orders.PENDING_PAYMENT, orders) == 0) {
+            return false;
+        }
+
+        // 累加已取消订单数
+        businessStatsService.recordOrderCancelled(ordersDB);
+
+        // 发布订单取消事件
+        eventPublisher.publishEvent(new OrderCancelledEvent(ordersDB.getId(), ordersDB.getNumber(), TIMEOUT_CANCEL_REASON));
+        return true;
+    }
+
+    /**
+     * 批量取消支付超时的订单，单次最多处理limit条
+     * 先锁定本批次订单再按id批量修改，保证统计数据与实际修改的订单一致
+     * @param orderTime 下单时间早于该时间的待付款订单视为超时
+     * @param limit
+     * @return 本批次取消的订单id
+     */
+    @Override
+    @Transactional
+    public List<Long> cancelTimeoutOrders(LocalDateTime orderTime, int limit) {
+        List<Orders> ordersList = orderMapper.lockByStatusAndOrderTimeLT(Orders.PENDING_PAYMENT, orderTime, limit);
+        if (ordersList.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Long> ids = ordersList.stream().map(Orders::getId).collect(Collectors.toList());
+        Orders orders = Orders.builder()
+                .status(Orders.CANCELLED)
+                .cancelReason(TIMEOUT_CANCEL_REASON)
+                .cancelTime(LocalDateTime.now())
+                .build();
+        orderMapper.updateStatusByIds(ids, Orders.PENDING_PAYMENT, orders);
+
+        // 累加已取消订单数
+        businessStatsService.recordOrdersCancelled(ordersList);
+
+        // 发布订单取消事件
+        for (Orders ordersDB : ordersList) {
+            eventPublisher.publishEvent(new OrderCancelledEvent(ordersDB.getId(), ordersDB.getNumber(), TIMEOUT_CANCEL_REASON));
+        }
+        return ids;
+    }
+
+    /**
+     * 批量完成一直派送中的订单，单次最多处理limit条
+     * @param orderTime 下单时间早于该时间的派送中订单自动完成
+     * @param limit
+     * @return 本批次完成的订单id
+     */
+    @Override
+    @Transactional
+    public List<Long> completeDeliveryOrders(LocalDateTime orderTime, int limit) {
+        List<Orders> ordersList = orderMapper.lockByStatusAndOrderTimeLT(Orders.DELIVERY_IN_PROGRESS, orderTime, limit);
+        if (ordersList.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Long> ids = ordersList.stream().map(Orders::getId).collect(Collectors.toList());
+        Orders orders = Orders.builder()
+                .status(Orders.COMPLETED)
+                .build();
+        orderMapper.updateStatusByIds(ids, Orders.DELIVERY_IN_PROGRESS, orders);
 
-        String json = JSON.toJSONString(map);
-        webSocketServer.sendToAllClient(json);
+        // 累加营业额和有效订单数
+        businessStatsService.recordOrdersCompleted(ordersList);
+        return ids;
     }
 }
@@ -0,0 +1,170 @@
+package com.sky.service.impl;
+
+import com.sky.service.OrderService;
+import com.sky.service.OrderTimeoutService;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 订单支付超时的延迟队列
+ * 所有待支付订单按到期时间保存在redis有序集合中，各节点每秒把即将到期的订单加载到本地的时间轮，
+ * 到期时先从有序集合中删除订单，删除成功的节点负责取消订单，因此多个节点同时加载同一订单也只会处理一次。
+ * 取消失败的订单稍后重新放回队列；服务停止期间到期的订单在启动后的第一次加载时处理，
+ * OrderTask中的定时扫描只作为兜底
+ */
+@Service
+@Slf4j
+public class OrderTimeoutServiceImpl implements OrderTimeoutService {
+
+    // 待支付订单，member = 订单id，score = 到期时间（毫秒）
+    private static final String QUEUE_KEY = "order_timeout_queue";
+    // 取消失败后重新放回队列的延迟（毫秒）
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private OrderService orderService;
+
+    // 支付超时时间（分钟）
+    @Value("${sky.order-timeout.minutes:15}")
+    private long timeoutMinutes;
+    // 时间轮负责的时间范围（秒），到期时间在此范围内的订单会被加载到时间轮
+    @Value("${sky.order-timeout.horizon-seconds:60}")
+    private long horizonSeconds;
+    // 每次从redis加载的最大订单数
+    @Value("${sky.order-timeout.load-batch-size:1000}")
+    private int loadBatchSize;
+
+    // 已加载到时间轮的订单
+    private final Map<Long, Timeout> timeouts = new ConcurrentHashMap<>();
+
+    private HashedWheelTimer timer;
+    private ThreadPoolExecutor cancelExecutor;
+    // 服务已停止，不再安排下一次加载
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        // 刻度100毫秒，保证订单在到期后1秒内被取消
+        timer = new HashedWheelTimer(runnable -> {
+            Thread thread = new Thread(runnable, "order-timeout-wheel");
+            thread.setDaemon(true);
+            return thread;
+        }, 100, TimeUnit.MILLISECONDS, 512);
+
+        // 取消订单需要访问数据库，不在时间轮线程中执行
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        cancelExecutor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1000),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "order-timeout-cancel-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        timer.newTimeout(timeout -> load(), 0, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        stopped = true;
+        timer.stop();
+        cancelExecutor.shutdown();
+    }
+
+    @Override
+    public void schedule(Long orderId, LocalDateTime orderTime) {
+        long deadline = orderTime.plusMinutes(timeoutMinutes).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        stringRedisTemplate.opsForZSet().add(QUEUE_KEY, orderId.toString(), deadline);
+    }
+
+    @Override
+    public void remove(Long orderId) {
+        stringRedisTemplate.opsForZSet().remove(QUEUE_KEY, orderId.toString());
+        Timeout timeout = timeouts.remove(orderId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 把即将到期的订单加载到时间轮，在时间轮线程中每秒执行一次
+     */
+    private void load() {
+        try {
+            long now = System.currentTimeMillis();
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(QUEUE_KEY, 0, now + TimeUnit.SECONDS.toMillis(horizonSeconds), 0, loadBatchSize);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    Long orderId = Long.valueOf(tuple.getValue());
+                    long delay = Math.max(0, tuple.getScore().longValue() - now);
+                    timeouts.computeIfAbsent(orderId,
+                            id -> timer.newTimeout(timeout -> expire(id), delay, TimeUnit.MILLISECONDS));
+                }
+            }
+        } catch (Exception e) {
+            log.error("加载支付超时订单失败", e);
+        } finally {
+            if (!stopped) {
+                try {
+                    timer.newTimeout(timeout -> load(), 1, TimeUnit.SECONDS);
+                } catch (IllegalStateException e) {
+                    // 检查之后时间轮恰好被停止
+                    log.info("时间轮已停止，不再加载支付超时订单");
+                }
+            }
+        }
+    }
+
+    /**
+     * 订单到期，在时间轮线程中执行
+     * 先移出本地记录，提交取消任务失败时订单仍在redis中，下一次加载时会重新放入时间轮
+     * @param orderId
+     */
+    private void expire(Long orderId) {
+        timeouts.remove(orderId);
+        try {
+            cancelExecutor.execute(() -> cancel(orderId));
+        } catch (RejectedExecutionException e) {
+            log.warn("支付超时订单取消任务已满，订单{}稍后重试", orderId);
+        }
+    }
+
+    private void cancel(Long orderId) {
+        // 删除成功的节点负责取消订单；删除失败说明订单已支付或已被其他节点处理
+        Long removed = stringRedisTemplate.opsForZSet().remove(QUEUE_KEY, orderId.toString());
+        if (removed == null || removed == 0) {
+            return;
+        }
+        try {
+            if (orderService.cancelTimeoutOrder(orderId)) {
+                log.info("订单{}支付超时，已自动取消", orderId);
+            }
+        } catch (Exception e) {
+            log.error("支付超时订单{}取消失败，稍后重试", orderId, e);
+            stringRedisTemplate.opsForZSet().add(QUEUE_KEY, orderId.toString(), System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.sky.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import com.sky.exception.BaseException;
+import com.sky.service.OrderService;
+import com.sky.service.PayNotifyService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 支付成功通知的处理
+ * 通知按交易号去重并写入redis队列（在一个lua脚本中完成）后立即响应微信；后台线程从队列中取出通知修改订单状态。
+ * 处理中的通知保存在每个节点各自的列表中，节点重启时只恢复自己的列表，其他节点通过心跳判断节点已停止后再恢复它的列表；
+ * 处理失败时放入重试队列按退避时间延迟重试，不阻塞后面的通知，不可重试的错误和超过重试次数的通知放入失败列表
+ */
+@Service
+@Slf4j
+public class PayNotifyServiceImpl implements PayNotifyService {
+
+    // 已接收的交易号，key = pay_notify:交易号
+    private static final String DEDUPE_KEY_PREFIX = "pay_notify:";
+    // 待处理的通知
+    private static final String QUEUE_KEY = "pay_notify_queue";
+    // 处理中的通知，key = pay_notify_processing:节点标识
+    private static final String PROCESSING_KEY_PREFIX = "pay_notify_processing:";
+    // 等待重试的通知，score = 重试时间（毫秒）
+    private static final String RETRY_KEY = "pay_notify_retry";
+    // 多次处理失败或不可重试的通知
+    private static final String FAILED_KEY = "pay_notify_failed";
+    // 处理通知的节点
+    private static final String NODES_KEY = "pay_notify_nodes";
+    // 节点心跳，key = pay_notify_node:节点标识
+    private static final String HEARTBEAT_KEY_PREFIX = "pay_notify_node:";
+    // 心跳有效时间和刷新间隔（秒）
+    private static final long HEARTBEAT_SECONDS = 30;
+    private static final long HEARTBEAT_REFRESH_SECONDS = 10;
+    // 交易号首次出现时写入去重记录并把通知放入待处理队列，两步在一个脚本中完成，
+    // 不会出现去重记录已写入而通知未入队、之后微信的重试通知都被当作重复通知丢弃的情况
+    private static final RedisScript<Long> ACCEPT_SCRIPT = new DefaultRedisScript<>(
+            "if not redis.call('set', KEYS[1], ARGV[1], 'NX', 'EX', ARGV[2]) then return 0 end "
+                    + "redis.call('lpush', KEYS[2], ARGV[3]) "
+                    + "return 1",
+            Long.class);
+    // 把到期的重试通知移回待处理队列，每次最多移动100条
+    private static final RedisScript<Long> MOVE_DUE_SCRIPT = new DefaultRedisScript<>(
+            "local items = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, 100) "
+                    + "for i, item in ipairs(items) do "
+                    + "redis.call('zrem', KEYS[1], item) "
+                    + "redis.call('lpush', KEYS[2], item) end "
+                    + "return #items",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private OrderService orderService;
+
+    // 交易号去重记录的保存时间（小时），需覆盖微信重试通知的时间范围
+    @Value("${sky.pay-notify.dedupe-hours:72}")
+    private long dedupeHours;
+    // 处理失败后的最大重试次数
+    @Value("${sky.pay-notify.max-retries:5}")
+    private int maxRetries;
+    // 节点标识，需在重启前后保持不变，未配置时使用主机名和端口
+    @Value("${sky.pay-notify.node-id:}")
+    private String nodeId;
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private String processingKey;
+    private Thread worker;
+    private volatile boolean running = true;
+    private long lastHeartbeat;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isEmpty()) {
+            nodeId = hostName() + ":" + serverPort;
+        }
+        processingKey = PROCESSING_KEY_PREFIX + nodeId;
+        heartbeat();
+        stringRedisTemplate.opsForSet().add(NODES_KEY, nodeId);
+
+        // 本节点上次停止时未处理完的通知重新放回队列
+        recover(nodeId);
+
+        worker = new Thread(this::processLoop, "pay-notify-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        worker.interrupt();
+    }
+
+    @Override
+    public boolean accept(String outTradeNo, String transactionId) {
+        String dedupeKey = DEDUPE_KEY_PREFIX + (transactionId != null ? transactionId : outTradeNo);
+        JSONObject message = new JSONObject();
+        message.put("outTradeNo", outTradeNo);
+        message.put("transactionId", transactionId);
+        message.put("retries", 0);
+
+        Long accepted = stringRedisTemplate.execute(ACCEPT_SCRIPT, Arrays.asList(dedupeKey, QUEUE_KEY),
+                outTradeNo, String.valueOf(TimeUnit.HOURS.toSeconds(dedupeHours)), message.toJSONString());
+        if (accepted == null || accepted == 0) {
+            log.info("重复的支付通知，商户平台订单号：{}，微信支付交易号：{}", outTradeNo, transactionId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 恢复心跳已过期的节点未处理完的通知
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void recoverStoppedNodes() {
+        Set<String> nodes = stringRedisTemplate.opsForSet().members(NODES_KEY);
+        if (nodes == null) {
+            return;
+        }
+        for (String node : nodes) {
+            if (node.equals(nodeId) || Boolean.TRUE.equals(stringRedisTemplate.hasKey(HEARTBEAT_KEY_PREFIX + node))) {
+                continue;
+            }
+            log.info("支付通知处理节点{}已停止，恢复其未处理完的通知", node);
+            recover(node);
+            stringRedisTemplate.opsForSet().remove(NODES_KEY, node);
+        }
+    }
+
+    private void recover(String node) {
+        String message;
+        while ((message = stringRedisTemplate.opsForList().rightPopAndLeftPush(PROCESSING_KEY_PREFIX + node, QUEUE_KEY)) != null) {
+            log.info("恢复未处理完的支付通知：{}", message);
+        }
+    }
+
+    private void processLoop() {
+        while (running) {
+            String message;
+            try {
+                heartbeatIfNeeded();
+                moveDueRetries();
+                // 阻塞时间较短，保证到期的重试通知能及时移回队列
+                message = stringRedisTemplate.opsForList().rightPopAndLeftPush(QUEUE_KEY, processingKey, 1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("读取支付通知队列失败", e);
+                sleep(1000);
+                continue;
+            }
+            if (message != null) {
+                process(message);
+            }
+        }
+    }
+
+    private void process(String message) {
+        try {
+            JSONObject jsonObject;
+            try {
+                jsonObject = JSON.parseObject(message);
+            } catch (JSONException e) {
+                fail(message, "支付通知格式错误", e);
+                return;
+            }
+            String outTradeNo = jsonObject == null ? null : jsonObject.getString("outTradeNo");
+            if (outTradeNo == null) {
+                fail(message, "支付通知缺少商户平台订单号", null);
+                return;
+            }
+
+            try {
+                //业务处理，修改订单状态、来单提醒；订单状态修改是条件更新，重复处理不会产生影响
+                orderService.paySuccess(outTradeNo);
+            } catch (BaseException e) {
+                // 业务异常（例如订单不存在）重试也不会成功
+                fail(message, "支付通知处理失败，不可重试", e);
+            } catch (Exception e) {
+                retry(jsonObject, e);
+            }
+        } finally {
+            stringRedisTemplate.opsForList().remove(processingKey, 1, message);
+        }
+    }
+
+    /**
+     * 放入重试队列，第n次重试延迟2^n秒，超过重试次数后放入失败列表
+     * @param jsonObject
+     * @param e
+     */
+    private void retry(JSONObject jsonObject, Exception e) {
+        int retries = jsonObject.getIntValue("retries") + 1;
+        jsonObject.put("retries", retries);
+        if (retries > maxRetries) {
+            fail(jsonObject.toJSONString(), "支付通知多次处理失败", e);
+            return;
+        }
+        long delayMillis = TimeUnit.SECONDS.toMillis(1L << retries);
+        log.warn("支付通知处理失败，{}ms后第{}次重试：{}", delayMillis, retries, jsonObject, e);
+        stringRedisTemplate.opsForZSet().add(RETRY_KEY, jsonObject.toJSONString(), System.currentTimeMillis() + delayMillis);
+    }
+
+    private void fail(String message, String reason, Exception e) {
+        log.error("{}，已放入失败列表：{}", reason, message, e);
+        stringRedisTemplate.opsForList().leftPush(FAILED_KEY, message);
+    }
+
+    private void moveDueRetries() {
+        stringRedisTemplate.execute(MOVE_DUE_SCRIPT, Arrays.asList(RETRY_KEY, QUEUE_KEY),
+                String.valueOf(System.currentTimeMillis()));
+    }
+
+    private void heartbeatIfNeeded() {
+        if (System.currentTimeMillis() - lastHeartbeat >= TimeUnit.SECONDS.toMillis(HEARTBEAT_REFRESH_SECONDS)) {
+            heartbeat();
+        }
+    }
+
+    private void heartbeat() {
+        stringRedisTemplate.opsForValue().set(HEARTBEAT_KEY_PREFIX + nodeId, "1", HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        lastHeartbeat = System.currentTimeMillis();
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.sky.service.impl;
+
+import com.sky.constant.MessageConstant;
+import com.sky.exception.ReportBusinessException;
+import com.sky.service.ReportExportService;
+import com.sky.service.ReportService;
+import com.sky.vo.ReportExportJobVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 运营数据报表异步导出
+ * 导出任务在有界线程池中渲染到本地临时文件，任务和文件只保存在当前节点
+ */
+@Service
+@Slf4j
+public class ReportExportServiceImpl implements ReportExportService {
+
+    @Autowired
+    private ReportService reportService;
+
+    // 导出线程数
+    @Value("${sky.report.export.threads:2}")
+    private int threads;
+    // 排队任务数上限，超出后拒绝新的导出任务
+    @Value("${sky.report.export.queue-capacity:20}")
+    private int queueCapacity;
+    // 导出文件的有效期（分钟），有效期内相同的导出请求复用已导出的文件，包含今天的日期区间不复用
+    @Value("${sky.report.export.ttl-minutes:10}")
+    private long ttlMinutes;
+    // 导出文件的存放目录
+    @Value("${sky.report.export.dir:${java.io.tmpdir}/sky-report}")
+    private String dir;
+
+    private ThreadPoolExecutor executor;
+
+    // 任务id -> 导出任务
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    // 日期区间和类型 -> 任务id
+    private final Map<String, String> jobIdsByKey = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        new File(dir).mkdirs();
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "report-export-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交运营数据报表导出任务
+     * @param begin
+     * @param end
+     * @param detail
+     * @return
+     */
+    @Override
+    public ReportExportJobVO submit(LocalDate begin, LocalDate end, boolean detail) {
+        String key = begin + "_" + end + "_" + detail;
+
+        // 包含今天的日期区间数据仍在变化，每次都重新导出，不登记复用
+        if (!end.isBefore(LocalDate.now())) {
+            ExportJob job = new ExportJob(key, begin, end, detail);
+            jobs.put(job.id, job);
+            execute(job);
+            return job.toVO();
+        }
+
+        // 相同日期区间和类型的任务未失败且未过期时直接复用，否则创建新任务
+        ExportJob[] created = new ExportJob[1];
+        String jobId = jobIdsByKey.compute(key, (k, existingId) -> {
+            ExportJob existing = existingId == null ? null : jobs.get(existingId);
+            if (existing != null && existing.isReusable()) {
+                return existingId;
+            }
+            ExportJob job = new ExportJob(key, begin, end, detail);
+            jobs.put(job.id, job);
+            created[0] = job;
+            return job.id;
+        });
+
+        if (created[0] != null) {
+            execute(created[0]);
+        }
+
+        return getJob(jobId);
+    }
+
+    /**
+     * 将导出任务提交到线程池，线程池已满时撤销任务
+     * @param job
+     */
+    private void execute(ExportJob job) {
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            jobIdsByKey.remove(job.key, job.id);
+            throw new ReportBusinessException(MessageConstant.EXPORT_JOB_BUSY);
+        }
+        log.info("提交报表导出任务：{}，{}", job.id, job.key);
+    }
+
+    /**
+     * 查询导出任务的状态和进度
+     * @param jobId
+     * @return
+     */
+    @Override
+    public ReportExportJobVO getJob(String jobId) {
+        return getExistingJob(jobId).toVO();
+    }
+
+    /**
+     * 获取已完成的导出任务的文件并登记一次下载，下载结束后必须调用releaseFile
+     * @param jobId
+     * @return
+     */
+    @Override
+    public File acquireFile(String jobId) {
+        ExportJob job = getExistingJob(jobId);
+        if (!ReportExportJobVO.SUCCESS.equals(job.status)) {
+            throw new ReportBusinessException(MessageConstant.EXPORT_JOB_NOT_FINISHED);
+        }
+        synchronized (job) {
+            // 文件已被清理任务删除
+            if (job.deleted) {
+                throw new ReportBusinessException(MessageConstant.EXPORT_JOB_NOT_FOUND);
+            }
+            job.downloads++;
+        }
+        return job.file;
+    }
+
+    /**
+     * 下载结束，释放acquireFile登记的下载
+     * @param jobId
+     */
+    @Override
+    public void releaseFile(String jobId) {
+        ExportJob job = jobs.get(jobId);
+        if (job != null) {
+            synchronized (job) {
+                job.downloads--;
+            }
+        }
+    }
+
+    /**
+     * 定时清理过期的导出任务和文件，正在下载的文件等下载结束后的下一次清理再删除
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void cleanExpiredJobs() {
+        LocalDateTime now = LocalDateTime.now();
+        Iterator<ExportJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            ExportJob job = iterator.next();
+            if (job.expireTime != null && now.isAfter(job.expireTime)) {
+                synchronized (job) {
+                    if (job.downloads > 0) {
+                        continue;
+                    }
+                    job.deleted = true;
+                }
+                iterator.remove();
+                jobIdsByKey.remove(job.key, job.id);
+                if (job.file != null && !job.file.delete()) {
+                    log.warn("删除过期的导出文件失败：{}", job.file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行导出任务，将报表渲染到本地临时文件
+     * @param job
+     */
+    private void run(ExportJob job) {
+        job.status = ReportExportJobVO.RUNNING;
+        File file = new File(dir, job.id + ".xlsx");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            reportService.exportBusinessData(job.begin, job.end, job.detail, out, progress -> job.progress = progress);
+        } catch (Exception e) {
+            log.error("报表导出任务失败：{}", job.id, e);
+            file.delete();
+            // 异常信息只记录日志，不返回给前端
+            job.errorMessage = MessageConstant.EXPORT_JOB_FAILED;
+            job.finish(ReportExportJobVO.FAILED, ttlMinutes);
+            return;
+        }
+        job.file = file;
+        job.progress = 100;
+        job.finish(ReportExportJobVO.SUCCESS, ttlMinutes);
+        log.info("报表导出任务完成：{}", job.id);
+    }
+
+    private ExportJob getExistingJob(String jobId) {
+        ExportJob job = jobId == null ? null : jobs.get(jobId);
+        if (job == null) {
+            throw new ReportBusinessException(MessageConstant.EXPORT_JOB_NOT_FOUND);
+        }
+        return job;
+    }
+
+    /**
+     * 导出任务，状态字段由导出线程更新、由查询线程读取
+     */
+    private static class ExportJob {
+        private final String id = UUID.randomUUID().toString().replace("-", "");
+        private final String key;
+        private final LocalDate begin;
+        private final LocalDate end;
+        private final boolean detail;
+        private final LocalDateTime createTime = LocalDateTime.now();
+
+        private volatile Integer status = ReportExportJobVO.QUEUED;
+        private volatile int progress;
+        private volatile String errorMessage;
+        private volatile File file;
+        private volatile LocalDateTime finishTime;
+        private volatile LocalDateTime expireTime;
+        // 正在下载的次数和文件是否已删除，由任务对象的锁保护
+        private int downloads;
+        private boolean deleted;
+
+        ExportJob(String key, LocalDate begin, LocalDate end, boolean detail) {
+            this.key = key;
+            this.begin = begin;
+            this.end = end;
+            this.detail = detail;
+        }
+
+        void finish(Integer status, long ttlMinutes) {
+            this.finishTime = LocalDateTime.now();
+            this.expireTime = finishTime.plusMinutes(ttlMinutes);
+            this.status = status;
+        }
+
+        boolean isReusable() {
+            return !ReportExportJobVO.FAILED.equals(status)
+                    && (expireTime == null || LocalDateTime.now().isBefore(expireTime));
+        }
+
+        ReportExportJobVO toVO() {
+            return ReportExportJobVO.builder()
+                    .jobId(id)
+                    .status(status)
+                    .progress(progress)
+                    .begin(begin)
+                    .end(end)
+                    .detail(detail)
+                    .errorMessage(errorMessage)
+                    .createTime(createTime)
+                    .finishTime(finishTime)
+                    .build();
+        }
+    }
+}
@@ -1,38 +1,71 @@
 package com.sky.service.impl;
 
 import com.sky.dto.GoodsSalesDTO;
+import com.sky.entity.DailyBusinessStats;
 import com.sky.entity.Orders;
 import com.sky.mapper.OrderMapper;
 import com.sky.mapper.UserMapper;
+import com.sky.service.BusinessStatsService;
 import com.sky.service.ReportService;
-import com.sky.service.WorkspaceService;
 import com.sky.vo.*;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFRow;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.servlet.ServletOutputStream;
-import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 @Service
 public class ReportServiceImpl implements ReportService {
 
+    // 运营数据报表模板
+    private static final String EXPORT_TEMPLATE = "template/运营数据报表模板.xlsx";
+    // 模板中明细数据的第一行（从0开始）
+    private static final int DETAIL_FIRST_ROW = 7;
+    // 明细数据的列数（从第2列开始）
+    private static final int DETAIL_COLUMNS = 6;
+    // SXSSF在内存中保留的行数，超出的行写入磁盘临时文件
+    private static final int ROW_ACCESS_WINDOW = 100;
+    // 单个sheet页的最大行数，订单明细超过后写入下一个sheet页
+    private static final int MAX_SHEET_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    // 订单明细sheet页的表头
+    private static final String[] ORDER_DETAIL_TITLES = {"订单号", "下单时间", "订单状态", "实收金额", "收货人", "手机号", "地址"};
+
+    // 订单状态名称 1待付款 2待接单 3已接单 4派送中 5已完成 6已取消
+    private static final Map<Integer, String> ORDER_STATUS_NAMES = new HashMap<>();
+
+    static {
+        ORDER_STATUS_NAMES.put(Orders.PENDING_PAYMENT, "待付款");
+        ORDER_STATUS_NAMES.put(Orders.TO_BE_CONFIRMED, "待接单");
+        ORDER_STATUS_NAMES.put(Orders.CONFIRMED, "已接单");
+        ORDER_STATUS_NAMES.put(Orders.DELIVERY_IN_PROGRESS, "派送中");
+        ORDER_STATUS_NAMES.put(Orders.COMPLETED, "已完成");
+        ORDER_STATUS_NAMES.put(Orders.CANCELLED, "已取消");
+    }
+
     @Autowired
     private OrderMapper orderMapper;
     @Autowired
     private UserMapper userMapper;
     @Autowired
-    private WorkspaceService workspaceService;
+    private BusinessStatsService businessStatsService;
 
     /**
      * 统计指定时间区间内的营业额数据
@@ -44,31 +77,16 @@ public class ReportServiceImpl implements ReportService {
     @Override
     public TurnoverReportVO getTurnoverStatistics(LocalDate begin, LocalDate end) {
         // 当前集合用于存放从begin到end范围内的每天的日期
-        List<LocalDate> dateList = new ArrayList<>();
+        List<LocalDate> dateList = getDateList(begin, end);
 
-        dateList.add(begin);
-
-        while (!begin.equals(end)) {
-            // 计算指定日期的后一天对应的日期
-            begin = begin.plusDays(1);
-            dateList.add(begin);
-        }
+        // 每天的营业数据，历史日期读取每日营业数据物化表，当天实时统计
+        Map<LocalDate, DailyBusinessStats> dailyStats = businessStatsService.getDailyStats(begin, end);
 
         List<Double> turoverList = new ArrayList<>();
 
         for (LocalDate date : dateList) {
-            // 查询date日期对应的营业额数据（已完成的订单金额合计）
-            LocalDateTime beginTime = LocalDateTime.of(date, LocalTime.MIN); // 获取当天开始时间
-            LocalDateTime endTime = LocalDateTime.of(date, LocalTime.MAX); // 获取当天结束时间
-
-            // select sum(amount) from orders where order_time > ? and order_time < ? and status = 5
-            Map map = new HashMap();
-            map.put("begin", beginTime);
-            map.put("end", endTime);
-            map.put("status", Orders.COMPLETED);
-            Double turnover = orderMapper.sumByMap(map);
-            // 没有营业额会返回空
-            turnover = turnover == null ? 0.0 : turnover;
+            // date日期对应的营业额数据（已完成的订单金额合计）
+            Double turnover = dailyStats.get(date).getTurnover().doubleValue();
             turoverList.add(turnover);
         }
 
@@ -88,42 +106,29 @@ public class ReportServiceImpl implements ReportService {
      */
     @Override
     public UserReportVO getUserStatistics(LocalDate begin, LocalDate end) {
-        List<LocalDate> dateList = new ArrayList<>();
+        List<LocalDate> dateList = getDateList(begin, end);
 
-        dateList.add(begin);
+        // 区间开始之前的用户总量 select count(id) from user where create_time < ?
+        Map map = new HashMap();
+        map.put("end", LocalDateTime.of(begin, LocalTime.MIN));
+        Integer totalUser = userMapper.countByMap(map);
 
-        while (!begin.equals(end)) {
-            begin = begin.plusDays(1);
-            dateList.add(begin);
-        }
+        // 区间内每天新增的用户数量
+        Map<LocalDate, DailyBusinessStats> dailyStats = businessStatsService.getDailyStats(begin, end);
 
-        // 存放每天总用户数量 select count(id) from user where create_time < ?
+        // 存放每天总用户数量
         List<Integer> totalUserList = new ArrayList<>();
-        // 存放每天新增用户数量 select count(id) from user where create_time < ? and creat_time > ?
+        // 存放每天新增用户数量
         List<Integer> newUserList = new ArrayList<>();
 
-        Integer totalUser = 0; // 为了减少sql语句
         for (LocalDate date : dateList) {
-            LocalDateTime beginTime = LocalDateTime.of(date, LocalTime.MIN);
-            LocalDateTime endTime = LocalDateTime.of(date, LocalTime.MAX);
-
-            Map map = new HashMap();
-            map.put("end", endTime);
-            if (totalUserList.isEmpty()) {
-                // 没有用户不会返回null
-                totalUser = userMapper.countByMap(map);
-            }
-            map.put("begin", beginTime);
-            Integer newUser = userMapper.countByMap(map);
-            if (!totalUserList.isEmpty()) {
-                totalUser += newUser;
-            }
+            Integer newUser = dailyStats.get(date).getNewUsers();
+            totalUser += newUser;
 
             totalUserList.add(totalUser);
             newUserList.add(newUser);
         }
 
-
         return UserReportVO.builder()
                 .dateList(StringUtils.join(dateList, ","))
                 .totalUserList(StringUtils.join(totalUserList, ","))
@@ -140,14 +145,9 @@ public class ReportServiceImpl implements ReportService {
      */
     @Override
     public OrderReportVO getOrderStatistics(LocalDate begin, LocalDate end) {
-        List<LocalDate> dateList = new ArrayList<>();
+        List<LocalDate> dateList = getDateList(begin, end);
 
-        dateList.add(begin);
-
-        while (!begin.equals(end)) {
-            begin = begin.plusDays(1);
-            dateList.add(begin);
-        }
+        Map<LocalDate, DailyBusinessStats> dailyStats = businessStatsService.getDailyStats(begin, end);
 
         //存储每日订单数
         List<Integer> orderCountList = new ArrayList<>();
@@ -156,21 +156,11 @@ public class ReportServiceImpl implements ReportService {
         Integer totalOrderCount = 0;
         Integer validOrderCount = 0;
 
-        // 查询每天的有效订单数和订单总数
+        // 每天的有效订单数和订单总数
         for (LocalDate date : dateList) {
-            LocalDateTime beginTime = LocalDateTime.of(date, LocalTime.MIN);
-            LocalDateTime endTime = LocalDateTime.of(date, LocalTime.MAX);
-
-            Map map = new HashMap();
-            map.put("begin", beginTime);
-            map.put("end", endTime);
-
-            // 查询订单总数，select count(id) from orders where order_time > ? and order_time < ?
-            Integer orderCount = orderMapper.countByMap(map);
-
-            map.put("status", Orders.COMPLETED);
-            // 查询每天的有效订单数，select count(id) from orders where order_time > ? and order_time < ? and status = 5
-            Integer everydayValidOrderCount = orderMapper.countByMap(map);
+            DailyBusinessStats stats = dailyStats.get(date);
+            Integer orderCount = stats.getTotalOrderCount();
+            Integer everydayValidOrderCount = stats.getValidOrderCount();
 
             totalOrderCount += orderCount;
             validOrderCount += everydayValidOrderCount;
@@ -195,6 +185,25 @@ public class ReportServiceImpl implements ReportService {
                 .build();
     }
 
+    /**
+     * 获取从begin到end范围内的每天的日期
+     *
+     * @param begin
+     * @param end
+     * @return
+     */
+    private List<LocalDate> getDateList(LocalDate begin, LocalDate end) {
+        List<LocalDate> dateList = new ArrayList<>();
+
+        // 开始日期晚于结束日期时返回空集合
+        while (!begin.isAfter(end)) {
+            dateList.add(begin);
+            // 计算指定日期的后一天对应的日期
+            begin = begin.plusDays(1);
+        }
+        return dateList;
+    }
+
     /**
      * 统计指定时间区间内的销量排名top10
      *
@@ -225,66 +234,212 @@ public class ReportServiceImpl implements ReportService {
 
     /**
      * 导出运营数据报表
+     * 基于SXSSF流式写入，内存中只保留最近的若干行，导出任意长度的日期区间都只占用固定的堆内存
      *
-     * @param response
+     * @param begin  开始日期
+     * @param end    结束日期
+     * @param detail 是否导出订单明细sheet页
+     * @param out    输出流
      */
     @Override
-    public void exportBusinessData(HttpServletResponse response) {
+    public void exportBusinessData(LocalDate begin, LocalDate end, boolean detail, OutputStream out) throws IOException {
+        exportBusinessData(begin, end, detail, out, progress -> {
+        });
+    }
+
+    /**
+     * 导出运营数据报表，并报告导出进度
+     * 进度划分：查询营业数据10%，每日明细写到50%（不导出订单明细时写到90%），订单明细写到90%，写出文件100%
+     *
+     * @param begin    开始日期
+     * @param end      结束日期
+     * @param detail   是否导出订单明细sheet页
+     * @param out      输出流
+     * @param progress 进度回调
+     */
+    @Override
+    public void exportBusinessData(LocalDate begin, LocalDate end, boolean detail, OutputStream out, IntConsumer progress) throws IOException {
         // 1 查询数据库，获取营业数据
-        // 查询最近30天的运营数据源
-        LocalDate dateBegin = LocalDate.now().minusDays(30);
-        LocalDate dateEnd = LocalDate.now().minusDays(1);
-        BusinessDataVO businessDataVO = workspaceService.getBusinessData(LocalDateTime.of(dateBegin, LocalTime.MIN), LocalDateTime.of(dateEnd, LocalTime.MAX));
+        // 一次查询得到区间内每天的营业数据，概览数据由每天的数据汇总
+        Map<LocalDate, DailyBusinessStats> dailyStats = businessStatsService.getDailyStats(begin, end);
+        List<LocalDate> dateList = getDateList(begin, end);
+        BusinessDataVO businessDataVO = toBusinessData(dailyStats.values());
+        progress.accept(10);
 
         // 2 通过POI将数据写入到Excel文件中
         try (// 通过反射得到配置文件中的模板输入流
-             InputStream in = this.getClass().getClassLoader().getResourceAsStream("template\\运营数据报表模板.xlsx");
+             InputStream in = this.getClass().getClassLoader().getResourceAsStream(EXPORT_TEMPLATE);
              // 通过模板文件创建新的Excel文件
-             XSSFWorkbook excel = new XSSFWorkbook(in);
-             // 输出流
-             ServletOutputStream out = response.getOutputStream();
-             ) {
+             XSSFWorkbook template = new XSSFWorkbook(in)) {
             // 获取sheet页
-            XSSFSheet sheet = excel.getSheet("Sheet1");
+            XSSFSheet templateSheet = template.getSheet("Sheet1");
 
             // 填充数据 -> 时间
-            sheet.getRow(1).getCell(1).setCellValue("时间：" + dateBegin + "至" + dateEnd);
+            templateSheet.getRow(1).getCell(1).setCellValue("时间：" + begin + "至" + end);
 
             // 获得第四行
-            XSSFRow row = sheet.getRow(3);
+            XSSFRow row = templateSheet.getRow(3);
             // 填充数据
             row.getCell(2).setCellValue(businessDataVO.getTurnover());
             row.getCell(4).setCellValue(businessDataVO.getOrderCompletionRate());
             row.getCell(6).setCellValue(businessDataVO.getNewUsers());
 
             // 获取第5行
-            row = sheet.getRow(4);
+            row = templateSheet.getRow(4);
             // 填充数据
             row.getCell(2).setCellValue(businessDataVO.getValidOrderCount());
             row.getCell(4).setCellValue(businessDataVO.getUnitPrice());
 
-            // 填充明细数据
-            for (int i = 0; i < 30; i++) {
-                LocalDate date = dateBegin.plusDays(i);
-                // 查询某天的营业数据
-                BusinessDataVO businessData = workspaceService.getBusinessData(LocalDateTime.of(date, LocalTime.MIN), LocalDateTime.of(date, LocalTime.MAX));
-
-                // 获得某一行
-                row = sheet.getRow(i + 7);
-                row.getCell(1).setCellValue(date.toString());
-                row.getCell(2).setCellValue(businessData.getTurnover());
-                row.getCell(3).setCellValue(businessData.getValidOrderCount());
-                row.getCell(4).setCellValue(businessData.getOrderCompletionRate());
-                row.getCell(5).setCellValue(businessData.getUnitPrice());
-                row.getCell(6).setCellValue(businessData.getNewUsers());
+            // 记录模板中明细行的单元格样式，然后删除模板中预留的明细行
+            // SXSSF只能在模板已有行之后追加新行
+            CellStyle[] detailStyles = new CellStyle[DETAIL_COLUMNS + 1];
+            XSSFRow styleRow = templateSheet.getRow(DETAIL_FIRST_ROW);
+            for (int i = 1; i <= DETAIL_COLUMNS; i++) {
+                detailStyles[i] = styleRow.getCell(i).getCellStyle();
+            }
+            for (int i = templateSheet.getLastRowNum(); i >= DETAIL_FIRST_ROW; i--) {
+                XSSFRow templateRow = templateSheet.getRow(i);
+                if (templateRow != null) {
+                    templateSheet.removeRow(templateRow);
+                }
+            }
+
+            SXSSFWorkbook excel = new SXSSFWorkbook(template, ROW_ACCESS_WINDOW);
+            try {
+                SXSSFSheet sheet = excel.getSheet("Sheet1");
+
+                // 填充明细数据
+                for (int i = 0; i < dateList.size(); i++) {
+                    LocalDate date = dateList.get(i);
+                    // 某天的营业数据
+                    BusinessDataVO businessData = toBusinessData(Collections.singletonList(dailyStats.get(date)));
+
+                    SXSSFRow detailRow = sheet.createRow(i + DETAIL_FIRST_ROW);
+                    for (int j = 1; j <= DETAIL_COLUMNS; j++) {
+                        detailRow.createCell(j).setCellStyle(detailStyles[j]);
+                    }
+                    detailRow.getCell(1).setCellValue(date.toString());
+                    detailRow.getCell(2).setCellValue(businessData.getTurnover());
+                    detailRow.getCell(3).setCellValue(businessData.getValidOrderCount());
+                    detailRow.getCell(4).setCellValue(businessData.getOrderCompletionRate());
+                    detailRow.getCell(5).setCellValue(businessData.getUnitPrice());
+                    detailRow.getCell(6).setCellValue(businessData.getNewUsers());
+
+                    progress.accept(10 + (detail ? 40 : 80) * (i + 1) / dateList.size());
+                }
+
+                // 订单明细，通过游标逐行读取，不会一次性把区间内的订单加载到内存
+                if (detail) {
+                    writeOrderDetailSheet(excel, begin, end, progress);
+                }
+
+                // 3 通过输出流将Excel文件写出
+                excel.write(out);
+                progress.accept(100);
+            } finally {
+                // 删除SXSSF写出到磁盘的临时文件
+                excel.dispose();
             }
+        }
+    }
+
+    /**
+     * 写入订单明细sheet页，超过单个sheet页的最大行数时继续写入 订单明细2、订单明细3 ...
+     *
+     * @param excel
+     * @param begin
+     * @param end
+     * @param progress
+     */
+    private void writeOrderDetailSheet(SXSSFWorkbook excel, LocalDate begin, LocalDate end, IntConsumer progress) {
+        LocalDateTime beginTime = LocalDateTime.of(begin, LocalTime.MIN);
+        LocalDateTime endTime = LocalDateTime.of(end.plusDays(1), LocalTime.MIN);
+
+        // 订单总数，用于计算进度
+        Map map = new HashMap();
+        map.put("begin", beginTime);
+        map.put("end", endTime);
+        int total = Math.max(orderMapper.countByMap(map), 1);
+
+        SXSSFSheet[] sheet = {createOrderDetailSheet(excel, 1)};
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        // 当前sheet页的下一行、sheet页序号、已写入的订单数
+        int[] rowIndex = {1};
+        int[] sheetIndex = {1};
+        int[] written = {0};
+        orderMapper.listByOrderTime(beginTime, endTime,
+                context -> {
+                    Orders orders = context.getResultObject();
+                    if (rowIndex[0] >= MAX_SHEET_ROWS) {
+                        sheet[0] = createOrderDetailSheet(excel, ++sheetIndex[0]);
+                        rowIndex[0] = 1;
+                    }
+                    SXSSFRow row = sheet[0].createRow(rowIndex[0]++);
+                    row.createCell(0).setCellValue(orders.getNumber());
+                    row.createCell(1).setCellValue(orders.getOrderTime() == null ? "" : formatter.format(orders.getOrderTime()));
+                    row.createCell(2).setCellValue(ORDER_STATUS_NAMES.getOrDefault(orders.getStatus(), ""));
+                    row.createCell(3).setCellValue(orders.getAmount() == null ? 0.0 : orders.getAmount().doubleValue());
+                    row.createCell(4).setCellValue(orders.getConsignee());
+                    row.createCell(5).setCellValue(orders.getPhone());
+                    row.createCell(6).setCellValue(orders.getAddress());
+
+                    // 每1000行报告一次进度
+                    if (++written[0] % 1000 == 0) {
+                        progress.accept(50 + (int) Math.min(40L * written[0] / total, 40));
+                    }
+                });
+    }
 
-            // 3 通过输出流将Excel文件下载到客户端浏览器
-            excel.write(out);
+    /**
+     * 创建订单明细sheet页并写入表头
+     *
+     * @param excel
+     * @param index sheet页序号，从1开始
+     * @return
+     */
+    private SXSSFSheet createOrderDetailSheet(SXSSFWorkbook excel, int index) {
+        SXSSFSheet sheet = excel.createSheet(index == 1 ? "订单明细" : "订单明细" + index);
+        SXSSFRow titleRow = sheet.createRow(0);
+        for (int i = 0; i < ORDER_DETAIL_TITLES.length; i++) {
+            titleRow.createCell(i).setCellValue(ORDER_DETAIL_TITLES[i]);
+        }
+        return sheet;
+    }
+
+    /**
+     * 将若干天的营业数据汇总为营业数据概览
+     *
+     * @param statsList
+     * @return
+     */
+    private BusinessDataVO toBusinessData(Collection<DailyBusinessStats> statsList) {
+        int totalOrderCount = 0;
+        int validOrderCount = 0;
+        int newUsers = 0;
+        BigDecimal turnover = BigDecimal.ZERO;
+        for (DailyBusinessStats stats : statsList) {
+            totalOrderCount += stats.getTotalOrderCount();
+            validOrderCount += stats.getValidOrderCount();
+            newUsers += stats.getNewUsers();
+            turnover = turnover.add(stats.getTurnover());
+        }
 
-            // JDK7之后上述创建IO流的方式会自动关闭资源
-        } catch (IOException e) {
-            e.printStackTrace();
+        Double unitPrice = 0.0;
+        Double orderCompletionRate = 0.0;
+        if (totalOrderCount != 0 && validOrderCount != 0) {
+            //订单完成率
+            orderCompletionRate = (double) validOrderCount / totalOrderCount;
+            //平均客单价
+            unitPrice = turnover.doubleValue() / validOrderCount;
         }
+
+        return BusinessDataVO.builder()
+                .turnover(turnover.doubleValue())
+                .validOrderCount(validOrderCount)
+                .orderCompletionRate(orderCompletionRate)
+                .unitPrice(unitPrice)
+                .newUsers(newUsers)
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,13 @@
 package com.sky.service.impl;
 
+import com.alibaba.fastjson.JSON;
+import com.sky.constant.MessageConstant;
 import com.sky.context.BaseContext;
 import com.sky.dto.ShoppingCartDTO;
 import com.sky.entity.Dish;
 import com.sky.entity.Setmeal;
 import com.sky.entity.ShoppingCart;
+import com.sky.exception.ShoppingCartBusinessException;
 import com.sky.mapper.DishMapper;
 import com.sky.mapper.SetmealMapper;
 import com.sky.mapper.ShoppingCartMapper;
@@ -12,21 +15,122 @@ import com.sky.service.ShoppingCartService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 购物车保存在redis中，每个用户两个hash：数量hash和商品信息hash，field为商品标识
+ * 数量的增减在lua脚本中原子执行，同一商品连续快速点击不会丢失修改；下单时直接读取redis中的购物车。
+ * 商品信息hash中的_loaded标记表示该用户数据库中的旧购物车数据已导入redis，
+ * 没有该标记时先把shopping_cart表中的数据导入redis并删除，之后购物车只保存在redis中。
+ * 导入的商品和_loaded标记在一个lua脚本中写入，其他请求不会看到导入了一部分的购物车；
+ * 导入失败时删除shopping_cart表数据的事务回滚，_loaded标记也不会写入，下次请求重新导入
+ */
 @Service
 @Slf4j
 public class ShoppingCartServiceImpl implements ShoppingCartService {
 
+    // 商品数量，key = shopping_cart:用户id，field = 商品标识，value = 数量
+    private static final String NUMBER_KEY_PREFIX = "shopping_cart:";
+    // 商品信息，key = shopping_cart_item:用户id，field = 商品标识，value = 名称、图片、金额等信息的json
+    private static final String ITEM_KEY_PREFIX = "shopping_cart_item:";
+    // 已导入数据库中旧购物车数据的标记
+    private static final String LOADED_FIELD = "_loaded";
+    // 导入旧购物车数据时的锁，key = shopping_cart_import:用户id
+    private static final String IMPORT_LOCK_KEY_PREFIX = "shopping_cart_import:";
+    // 导入锁的过期时间（秒）
+    private static final long IMPORT_LOCK_SECONDS = 30;
+    // 等待其他请求导入完成的最长时间和轮询间隔（毫秒）
+    private static final long IMPORT_WAIT_MILLIS = 3000;
+    private static final long IMPORT_POLL_MILLIS = 50;
+
+    // 脚本返回值：未导入数据库中的旧购物车数据
+    private static final long NOT_LOADED = -2;
+    // 脚本返回值：购物车中没有该商品
+    private static final long ITEM_MISSING = -1;
+
+    // 增加商品数量，购物车中没有该商品且未传入商品信息时返回-1
+    // ARGV：商品标识、增加的数量、过期时间（秒）、商品信息json
+    private static final RedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('hexists', KEYS[2], '" + LOADED_FIELD + "') == 0 then return " + NOT_LOADED + " end "
+                    + "if redis.call('hexists', KEYS[2], ARGV[1]) == 0 then "
+                    + "if ARGV[4] == '' then return " + ITEM_MISSING + " end "
+                    + "redis.call('hset', KEYS[2], ARGV[1], ARGV[4]) end "
+                    + "local number = redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2]) "
+                    + "redis.call('expire', KEYS[1], ARGV[3]) "
+                    + "redis.call('expire', KEYS[2], ARGV[3]) "
+                    + "return number",
+            Long.class);
+    // 商品数量减一，减到0时删除该商品，购物车中没有该商品时返回-1
+    // ARGV：商品标识、过期时间（秒）
+    private static final RedisScript<Long> SUB_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('hexists', KEYS[2], '" + LOADED_FIELD + "') == 0 then return " + NOT_LOADED + " end "
+                    + "if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then return " + ITEM_MISSING + " end "
+                    + "local number = redis.call('hincrby', KEYS[1], ARGV[1], -1) "
+                    + "if number <= 0 then "
+                    + "redis.call('hdel', KEYS[1], ARGV[1]) "
+                    + "redis.call('hdel', KEYS[2], ARGV[1]) end "
+                    + "redis.call('expire', KEYS[1], ARGV[2]) "
+                    + "redis.call('expire', KEYS[2], ARGV[2]) "
+                    + "return number",
+            Long.class);
+    // 清空购物车，保留已导入标记
+    // ARGV：过期时间（秒）
+    private static final RedisScript<Long> CLEAN_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('del', KEYS[1], KEYS[2]) "
+                    + "redis.call('hset', KEYS[2], '" + LOADED_FIELD + "', '1') "
+                    + "return redis.call('expire', KEYS[2], ARGV[1])",
+            Long.class);
+    // 写入导入的商品并设置已导入标记，已有标记时不导入并返回0
+    // ARGV：过期时间（秒），之后每3个为一组：商品标识、数量、商品信息json
+    private static final RedisScript<Long> IMPORT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('hexists', KEYS[2], '" + LOADED_FIELD + "') == 1 then return 0 end "
+                    + "for i = 2, #ARGV, 3 do "
+                    + "if redis.call('hexists', KEYS[2], ARGV[i]) == 0 then "
+                    + "redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 2]) end "
+                    + "redis.call('hincrby', KEYS[1], ARGV[i], ARGV[i + 1]) end "
+                    + "redis.call('hset', KEYS[2], '" + LOADED_FIELD + "', '1') "
+                    + "redis.call('expire', KEYS[1], ARGV[1]) "
+                    + "redis.call('expire', KEYS[2], ARGV[1]) "
+                    + "return 1",
+            Long.class);
+    // 只删除自己持有的锁
+    private static final RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
     @Autowired
     private ShoppingCartMapper shoppingCartMapper;
     @Autowired
     private DishMapper dishMapper;
     @Autowired
     private SetmealMapper setmealMapper;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 购物车最后一次修改后的保存时间（天）
+    @Value("${sky.shopping-cart.expire-days:7}")
+    private long expireDays;
 
     /**
      * 添加购物车
@@ -38,24 +142,9 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
         ShoppingCart shoppingCart = new ShoppingCart();
         BeanUtils.copyProperties(shoppingCartDTO, shoppingCart);
         Long userId = BaseContext.getCurrentId();
-        shoppingCart.setUserId(userId);
-
-        // 判断当前加入到购物车的商品是否已经存在
-        // select * from shopping_cart where user_id = ? and setmeal_id = ?
-        // select * from shopping_cart where user_id = ? and dish_id = ? and dish_flavor
-        List<ShoppingCart> list = shoppingCartMapper.list(shoppingCart);
-
-        if (list != null && list.size() > 0) {
-            // 如果存在，只需要将数量加一
-            // 只可能查到一条数据
-            ShoppingCart cart= list.get(0);
-            cart.setNumber(cart.getNumber() + 1);
-
-            // 修改shoppingCart表数据
-            // update shoppingCart set number = ? where id = ?
-            shoppingCartMapper.updateNumberById(cart);
-        } else {
-            // 如果不存在，需要插入一条购物车数据
+
+        // 先只增加数量，购物车中没有该商品时再查询菜品或套餐信息
+        if (add(userId, shoppingCart, 1, "") == ITEM_MISSING) {
             // 判断添加的是菜品还是套餐
             Long dishId = shoppingCart.getDishId();
 
@@ -74,11 +163,9 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
                 shoppingCart.setImage(setmeal.getImage());
                 shoppingCart.setAmount(setmeal.getPrice());
             }
-            shoppingCart.setNumber(1);
             shoppingCart.setCreateTime(LocalDateTime.now());
 
-            // 插入购物车数据
-            shoppingCartMapper.insert(shoppingCart);
+            add(userId, shoppingCart, 1, toJson(shoppingCart));
         }
     }
 
@@ -89,11 +176,7 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
     public List<ShoppingCart> showShoppingCart() {
         // 获取当前微信用户id
         Long userId = BaseContext.getCurrentId();
-        ShoppingCart shoppingCart = ShoppingCart.builder()
-                .userId(userId)
-                .build();
-        List<ShoppingCart> list = shoppingCartMapper.list(shoppingCart);
-        return list;
+        return list(userId);
     }
 
     /**
@@ -106,7 +189,7 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
         Long userId = BaseContext.getCurrentId();
 
         // 根据用户id清空购物车
-        shoppingCartMapper.deleteByUserId(userId);
+        clean(userId);
     }
 
     /**
@@ -119,27 +202,215 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
         ShoppingCart shoppingCart = new ShoppingCart();
         BeanUtils.copyProperties(shoppingCartDTO, shoppingCart);
         Long userId = BaseContext.getCurrentId();
-        shoppingCart.setUserId(userId);
 
-        List<ShoppingCart> list = shoppingCartMapper.list(shoppingCart);
+        List<String> keys = keysOf(userId);
+        String field = fieldOf(shoppingCart);
+        Long number = stringRedisTemplate.execute(SUB_SCRIPT, keys, field, expireSeconds());
+        if (number != null && number == NOT_LOADED) {
+            load(userId);
+            stringRedisTemplate.execute(SUB_SCRIPT, keys, field, expireSeconds());
+        }
+    }
 
-        // 为了代码的健壮性, 因为可能用接口文档测试, 乱传参
-        if (list != null && list.size() > 0) {
-            // 只可能查到一条数据
-            ShoppingCart cart= list.get(0);
-            Integer number = cart.getNumber();
-            if (number > 1) {
-                cart.setNumber(cart.getNumber() - 1);
+    /**
+     * 查询指定用户的购物车，按加入时间倒序排列
+     * @param userId
+     * @return
+     */
+    @Override
+    public List<ShoppingCart> list(Long userId) {
+        Map<Object, Object> items = stringRedisTemplate.opsForHash().entries(ITEM_KEY_PREFIX + userId);
+        if (!items.containsKey(LOADED_FIELD)) {
+            load(userId);
+            items = stringRedisTemplate.opsForHash().entries(ITEM_KEY_PREFIX + userId);
+        }
+        Map<Object, Object> numbers = stringRedisTemplate.opsForHash().entries(NUMBER_KEY_PREFIX + userId);
 
-                // 修改shoppingCart表数据
-                // update shoppingCart set number = ? where id = ?
-                shoppingCartMapper.updateNumberById(cart);
-            } else {
-                // 删除后有0个商品，所以直接删除
-                // delete from shopping_cart where id = ?
-                shoppingCartMapper.deleteById(cart.getId());
+        List<ShoppingCart> list = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : items.entrySet()) {
+            Object number = numbers.get(entry.getKey());
+            if (LOADED_FIELD.equals(entry.getKey()) || number == null) {
+                continue;
             }
+            ShoppingCart shoppingCart = JSON.parseObject((String) entry.getValue(), ShoppingCart.class);
+            shoppingCart.setUserId(userId);
+            shoppingCart.setNumber(Integer.valueOf((String) number));
+            list.add(shoppingCart);
+        }
+        list.sort(Comparator.comparing(ShoppingCart::getCreateTime, Comparator.nullsLast(Comparator.reverseOrder())));
+        return list;
+    }
+
+    /**
+     * 批量加入购物车，已存在的商品累加数量
+     * @param userId
+     * @param shoppingCarts
+     */
+    @Override
+    public void addAll(Long userId, List<ShoppingCart> shoppingCarts) {
+        for (ShoppingCart shoppingCart : shoppingCarts) {
+            add(userId, shoppingCart, shoppingCart.getNumber(), toJson(shoppingCart));
+        }
+    }
+
+    /**
+     * 清空指定用户的购物车，在事务中调用时，事务提交后才清空
+     * @param userId
+     */
+    @Override
+    public void clean(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stringRedisTemplate.execute(CLEAN_SCRIPT, keysOf(userId), expireSeconds());
+                }
+            });
+        } else {
+            stringRedisTemplate.execute(CLEAN_SCRIPT, keysOf(userId), expireSeconds());
+        }
+    }
+
+    /**
+     * 增加购物车中商品的数量，未导入数据库中的旧购物车数据时先导入
+     * @param userId
+     * @param shoppingCart
+     * @param increment
+     * @param json 商品信息，为空字符串时只修改已存在商品的数量
+     * @return 修改后的数量，购物车中没有该商品且未传入商品信息时返回-1
+     */
+    private long add(Long userId, ShoppingCart shoppingCart, int increment, String json) {
+        List<String> keys = keysOf(userId);
+        String field = fieldOf(shoppingCart);
+        Long number = stringRedisTemplate.execute(ADD_SCRIPT, keys, field, String.valueOf(increment), expireSeconds(), json);
+        if (number != null && number == NOT_LOADED) {
+            load(userId);
+            number = stringRedisTemplate.execute(ADD_SCRIPT, keys, field, String.valueOf(increment), expireSeconds(), json);
         }
+        return number == null ? ITEM_MISSING : number;
+    }
+
+    /**
+     * 把数据库中的旧购物车数据导入redis，只有抢到导入锁的请求执行导入，其他请求等待导入完成
+     * @param userId
+     */
+    private void load(Long userId) {
+        String lockKey = IMPORT_LOCK_KEY_PREFIX + userId;
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, IMPORT_LOCK_SECONDS, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            waitForLoaded(userId);
+            return;
+        }
+
+        try {
+            // 获取到锁后再检查一次，其他请求可能刚刚导入完成并释放了锁
+            if (isLoaded(userId)) {
+                return;
+            }
+            importFromDatabase(userId);
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey), token);
+        }
+    }
+
+    /**
+     * 在新事务中读取并删除shopping_cart表中的数据，最后写入redis；写入redis失败时事务回滚，数据库中的数据保留
+     * @param userId
+     */
+    private void importFromDatabase(Long userId) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.executeWithoutResult(status -> {
+            ShoppingCart query = ShoppingCart.builder()
+                    .userId(userId)
+                    .build();
+            List<ShoppingCart> list = shoppingCartMapper.list(query);
+
+            List<String> args = new ArrayList<>();
+            args.add(expireSeconds());
+            if (list != null) {
+                for (ShoppingCart shoppingCart : list) {
+                    args.add(fieldOf(shoppingCart));
+                    args.add(String.valueOf(shoppingCart.getNumber() == null ? 1 : shoppingCart.getNumber()));
+                    args.add(toJson(shoppingCart));
+                }
+            }
+            if (args.size() > 1) {
+                shoppingCartMapper.deleteByUserId(userId);
+            }
+
+            Long imported = stringRedisTemplate.execute(IMPORT_SCRIPT, keysOf(userId), args.toArray());
+            if (imported == null || imported == 0) {
+                // 导入锁过期后其他请求已经导入，回滚删除，避免重复导入
+                status.setRollbackOnly();
+                return;
+            }
+            if (args.size() > 1) {
+                log.info("用户{}的购物车已从数据库导入redis，共{}个商品", userId, list.size());
+            }
+        });
+    }
+
+    /**
+     * 等待其他请求导入完成，超时后提示稍后再试
+     * @param userId
+     */
+    private void waitForLoaded(Long userId) {
+        long deadline = System.currentTimeMillis() + IMPORT_WAIT_MILLIS;
+        while (!isLoaded(userId)) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new ShoppingCartBusinessException(MessageConstant.SHOPPING_CART_LOADING);
+            }
+            try {
+                Thread.sleep(IMPORT_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ShoppingCartBusinessException(MessageConstant.SHOPPING_CART_LOADING);
+            }
+        }
+    }
+
+    private boolean isLoaded(Long userId) {
+        return stringRedisTemplate.opsForHash().hasKey(ITEM_KEY_PREFIX + userId, LOADED_FIELD);
+    }
+
+    private List<String> keysOf(Long userId) {
+        return Arrays.asList(NUMBER_KEY_PREFIX + userId, ITEM_KEY_PREFIX + userId);
+    }
+
+    /**
+     * 商品标识，菜品为 d:菜品id:口味，套餐为 s:套餐id
+     * @param shoppingCart
+     * @return
+     */
+    private String fieldOf(ShoppingCart shoppingCart) {
+        if (shoppingCart.getDishId() != null) {
+            String dishFlavor = shoppingCart.getDishFlavor() == null ? "" : shoppingCart.getDishFlavor();
+            return "d:" + shoppingCart.getDishId() + ":" + dishFlavor;
+        }
+        return "s:" + shoppingCart.getSetmealId();
+    }
+
+    /**
+     * 商品信息json，不包含id、用户id和数量
+     * @param shoppingCart
+     * @return
+     */
+    private String toJson(ShoppingCart shoppingCart) {
+        ShoppingCart item = ShoppingCart.builder()
+                .name(shoppingCart.getName())
+                .image(shoppingCart.getImage())
+                .dishId(shoppingCart.getDishId())
+                .setmealId(shoppingCart.getSetmealId())
+                .dishFlavor(shoppingCart.getDishFlavor())
+                .amount(shoppingCart.getAmount())
+                .createTime(shoppingCart.getCreateTime() == null ? LocalDateTime.now() : shoppingCart.getCreateTime())
+                .build();
+        return JSON.toJSONString(item);
+    }
 
+    private String expireSeconds() {
+        return String.valueOf(TimeUnit.DAYS.toSeconds(expireDays));
     }
 }
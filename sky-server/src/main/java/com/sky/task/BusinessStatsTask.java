@@ -0,0 +1,38 @@
+package com.sky.task;
+
+import com.sky.annotation.ClusterTask;
+import com.sky.service.BusinessStatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * 定时任务类，每晚将每日营业数据物化表与原始订单、用户数据对账
+ */
+@Component
+@Slf4j
+public class BusinessStatsTask {
+
+    @Autowired
+    private BusinessStatsService businessStatsService;
+
+    // 对账最近几天的数据（不含当天）
+    @Value("${sky.stats.reconcile-days:3}")
+    private int reconcileDays;
+
+    /**
+     * 对账最近几天的营业数据
+     */
+    @Scheduled(cron = "0 30 1 * * ?") // 每天凌晨一点半触发，在处理派送中订单的任务之后
+    @ClusterTask(value = "reconcileBusinessStats", leaseSeconds = 3600)
+    public void reconcile() {
+        LocalDate end = LocalDate.now().minusDays(1);
+        LocalDate begin = end.minusDays(reconcileDays - 1);
+        log.info("定时对账营业数据：{} 至 {}", begin, end);
+        businessStatsService.reconcile(begin, end);
+    }
+}
@@ -0,0 +1,64 @@
+package com.sky.task;
+
+import com.sky.config.ExecutorConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 定时任务类，定时输出定时任务线程池和异步任务线程池的使用情况
+ */
+@Component
+@Slf4j
+public class ExecutorMonitorTask {
+
+    @Autowired
+    private ExecutorConfiguration executorConfiguration;
+    @Autowired
+    private ThreadPoolTaskScheduler taskScheduler;
+    @Autowired
+    private AsyncTaskExecutor taskExecutor;
+
+    // 上次输出时的累计拒绝数
+    private long lastSchedulerRejected;
+    private long lastAsyncRejected;
+
+    /**
+     * 输出线程池统计信息，有任务积压或新增被拒绝的任务时输出警告
+     */
+    @Scheduled(fixedRate = 60000)
+    public void logExecutorStats() {
+        long schedulerRejected = executorConfiguration.getSchedulerRejectedCount();
+        // 定时任务线程池的队列中保存的是等待下次触发的任务，不代表积压
+        logStats("定时任务", taskScheduler.getScheduledThreadPoolExecutor(), false,
+                schedulerRejected, schedulerRejected - lastSchedulerRejected);
+        lastSchedulerRejected = schedulerRejected;
+
+        if (taskExecutor instanceof ThreadPoolTaskExecutor) {
+            long asyncRejected = executorConfiguration.getAsyncRejectedCount();
+            logStats("异步任务", ((ThreadPoolTaskExecutor) taskExecutor).getThreadPoolExecutor(), true,
+                    asyncRejected, asyncRejected - lastAsyncRejected);
+            lastAsyncRejected = asyncRejected;
+        }
+    }
+
+    private void logStats(String name, ThreadPoolExecutor executor, boolean queueIsBacklog, long rejected, long newlyRejected) {
+        int queued = executor.getQueue().size();
+        boolean busy = newlyRejected > 0 || (queueIsBacklog && queued > 0);
+        if (busy) {
+            log.warn("{}线程池繁忙，活动线程：{}，线程数：{}，最大线程数：{}，队列长度：{}，已完成：{}，累计拒绝：{}",
+                    name, executor.getActiveCount(), executor.getPoolSize(), executor.getMaximumPoolSize(),
+                    queued, executor.getCompletedTaskCount(), rejected);
+        } else {
+            log.debug("{}线程池，活动线程：{}，线程数：{}，最大线程数：{}，队列长度：{}，已完成：{}，累计拒绝：{}",
+                    name, executor.getActiveCount(), executor.getPoolSize(), executor.getMaximumPoolSize(),
+                    queued, executor.getCompletedTaskCount(), rejected);
+        }
+    }
+}
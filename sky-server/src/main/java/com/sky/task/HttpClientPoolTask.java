@@ -0,0 +1,30 @@
+package com.sky.task;
+
+import com.sky.utils.HttpClientUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.pool.PoolStats;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定时任务类，定时输出http连接池的使用情况
+ */
+@Component
+@Slf4j
+public class HttpClientPoolTask {
+
+    /**
+     * 输出连接池统计信息，有请求在等待连接时输出警告
+     */
+    @Scheduled(fixedRate = 60000)
+    public void logPoolStats() {
+        PoolStats stats = HttpClientUtil.getPoolStats();
+        if (stats.getPending() > 0) {
+            log.warn("http连接池已满，已租用：{}，等待中：{}，空闲：{}，最大：{}",
+                    stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax());
+        } else {
+            log.debug("http连接池，已租用：{}，等待中：{}，空闲：{}，最大：{}",
+                    stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax());
+        }
+    }
+}
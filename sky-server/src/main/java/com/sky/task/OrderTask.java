@@ -1,67 +1,87 @@
 package com.sky.task;
 
-import com.sky.entity.Orders;
-import com.sky.mapper.OrderMapper;
+import com.sky.annotation.ClusterTask;
+import com.sky.service.OrderService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.BiFunction;
 
 /**
  * 定时任务类，定时处理订单状态
+ * 订单按批次处理，每批在独立的事务中锁定并批量修改，避免积压时长时间持有锁和逐条更新
  */
 @Component
 @Slf4j
 public class OrderTask {
 
     @Autowired
-    private OrderMapper orderMapper;
+    private OrderService orderService;
+
+    // 每批处理的订单数量
+    @Value("${sky.order-task.batch-size:500}")
+    private int batchSize;
 
     /**
      * 定时处理支付超时订单
+     * 订单到期后由OrderTimeoutService的延迟队列及时取消，这里只兜底处理延迟队列遗漏的订单
+     * @return 处理的订单数量
      */
-    @Scheduled(cron = "0 * * * * ?") // 每分钟执行一次（0秒时执行）
-    public void processTimeoutOrder() {
+    @Scheduled(cron = "0 */5 * * * ?") // 每5分钟执行一次
+    @ClusterTask("processTimeoutOrder")
+    public int processTimeoutOrder() {
         log.info("定时处理待支付超时订单：{}", LocalDateTime.now());
 
         // 超过15分钟为超时
         LocalDateTime time = LocalDateTime.now().plusMinutes(-15);
 
-        // 查询超时订单
-        // select * from order where status = ? and order_time < (当前时间-规定超时时间)
-        List<Orders> ordersList = orderMapper.getByStatusAndOderTimeLT(Orders.PENDING_PAYMENT, time);
-
-        // 修改信息
-        if (ordersList != null && !ordersList.isEmpty()) {
-            for (Orders order : ordersList) {
-                order.setStatus(Orders.CANCELLED);
-                order.setCancelReason("支付超时，自动取消");
-                order.setCancelTime(LocalDateTime.now());
-                orderMapper.update(order);
-            }
-        }
+        return processInBatches("支付超时订单", time, orderService::cancelTimeoutOrders);
     }
 
     /**
      * 定时处理一直派送中的订单
+     * @return 处理的订单数量
      */
     @Scheduled(cron = "0 0 1 * * ?")  // 每天凌晨一点触发
-    public void processDeliveryOrder() {
+    @ClusterTask(value = "processDeliveryOrder", leaseSeconds = 3600)
+    public int processDeliveryOrder() {
         log.info("定时处理一直派送中的订单{}", LocalDateTime.now());
 
         LocalDateTime time = LocalDateTime.now().plusMinutes(-60);
 
-        List<Orders> ordersList = orderMapper.getByStatusAndOderTimeLT(Orders.DELIVERY_IN_PROGRESS, time);
+        return processInBatches("派送中订单", time, orderService::completeDeliveryOrders);
+    }
 
-        // 修改信息
-        if (ordersList != null && !ordersList.isEmpty()) {
-            for (Orders order : ordersList) {
-                order.setStatus(Orders.COMPLETED);
-                orderMapper.update(order);
+    /**
+     * 分批处理订单，直到某一批不足batchSize条为止
+     * @param name 任务名称，用于日志
+     * @param time 下单时间早于该时间的订单需要处理
+     * @param batch 处理一批订单，返回本批次处理的订单id
+     * @return 处理的订单数量
+     */
+    private int processInBatches(String name, LocalDateTime time, BiFunction<LocalDateTime, Integer, List<Long>> batch) {
+        long start = System.currentTimeMillis();
+        int batches = 0;
+        int total = 0;
+        List<Long> ids;
+        do {
+            ids = batch.apply(time, batchSize);
+            if (ids.isEmpty()) {
+                break;
             }
+            batches++;
+            total += ids.size();
+            log.debug("{}第{}批处理{}条，累计{}条，id：{}", name, batches, ids.size(), total, ids);
+        } while (ids.size() >= batchSize);
+
+        if (total > 0) {
+            log.info("{}处理完成，共{}批{}条，耗时{}ms", name, batches, total, System.currentTimeMillis() - start);
         }
+        return total;
     }
 }
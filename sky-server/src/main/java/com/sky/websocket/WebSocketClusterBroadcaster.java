@@ -0,0 +1,182 @@
+package com.sky.websocket;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群内的WebSocket消息广播
+ * 消息发布到redis频道，每个节点收到后发送给连接在本节点的客户端；
+ * 最近的消息同时保存在redis列表中，客户端重连（可能连接到其他节点）时补发未接收的消息，
+ * 补发按序号判断，可能重复发送，保证至少一次送达
+ */
+@Component
+@Slf4j
+public class WebSocketClusterBroadcaster implements MessageListener, WebSocketSessionListener {
+
+    // 广播频道
+    public static final String CHANNEL = "websocket_broadcast";
+    // 消息序号
+    private static final String SEQ_KEY = "websocket_seq";
+    // 最近的消息列表，最新的在前
+    private static final String REPLAY_KEY = "websocket_replay";
+    // 客户端最后接收的消息序号，key = websocket_last_seq:sid
+    private static final String LAST_SEQ_KEY_PREFIX = "websocket_last_seq:";
+
+    // 生成序号、保存到补发列表、发布到频道在同一个脚本中执行，各节点收到消息的顺序与序号顺序一致
+    // KEYS：序号、补发列表；ARGV：不含序号的消息json、补发列表长度、频道
+    private static final RedisScript<Long> PUBLISH_SCRIPT = new DefaultRedisScript<>(
+            "local seq = redis.call('incr', KEYS[1]) "
+                    + "local envelope = cjson.decode(ARGV[1]) "
+                    + "envelope['seq'] = seq "
+                    + "local json = cjson.encode(envelope) "
+                    + "redis.call('lpush', KEYS[2], json) "
+                    + "redis.call('ltrim', KEYS[2], 0, tonumber(ARGV[2]) - 1) "
+                    + "redis.call('publish', ARGV[3], json) "
+                    + "return seq",
+            Long.class);
+    // 接收进度只增不减，ARGV：序号、保存时间（秒）
+    private static final RedisScript<Long> ADVANCE_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('get', KEYS[1]) or '0') "
+                    + "if tonumber(ARGV[1]) > current then "
+                    + "redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2]) return 1 end "
+                    + "redis.call('expire', KEYS[1], ARGV[2]) "
+                    + "return 0",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Autowired
+    private WebSocketServer webSocketServer;
+
+    // 保存最近的消息条数，用于重连后补发
+    @Value("${sky.websocket.replay-size:100}")
+    private int replaySize;
+    // 客户端接收进度的保存时间（天）
+    @Value("${sky.websocket.last-seq-ttl-days:7}")
+    private long lastSeqTtlDays;
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+        WebSocketServer.setSessionListener(this);
+    }
+
+    /**
+     * 向集群内所有客户端广播消息
+     * @param coalesceKey 合并key，为null时不合并
+     * @param message
+     */
+    public void broadcast(String coalesceKey, String message) {
+        publish(null, coalesceKey, message);
+    }
+
+    /**
+     * 向集群内的客户端发送消息
+     * @param sid 目标客户端，为null时发送给所有客户端
+     * @param coalesceKey 合并key，为null时不合并
+     * @param message
+     */
+    public void publish(String sid, String coalesceKey, String message) {
+        JSONObject envelope = new JSONObject();
+        envelope.put("sid", sid);
+        envelope.put("key", coalesceKey);
+        envelope.put("message", message);
+
+        // 先保存再发布，客户端重连时一定能补发到已发布的消息
+        stringRedisTemplate.execute(PUBLISH_SCRIPT, Arrays.asList(SEQ_KEY, REPLAY_KEY),
+                envelope.toJSONString(), String.valueOf(replaySize), CHANNEL);
+    }
+
+    /**
+     * 收到广播消息，发送给连接在当前节点的客户端
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject envelope = JSON.parseObject(new String(message.getBody(), StandardCharsets.UTF_8));
+        String sid = envelope.getString("sid");
+        long seq = envelope.getLongValue("seq");
+        if (sid == null) {
+            webSocketServer.sendToAllClient(envelope.getString("key"), envelope.getString("message"), seq);
+        } else {
+            webSocketServer.sendToClient(sid, envelope.getString("key"), envelope.getString("message"), seq);
+        }
+    }
+
+    /**
+     * 客户端建立连接后，补发上次断开后未接收的消息
+     * @param sid
+     * @param lastSeq 客户端携带的最后接收的消息序号，未携带时为null
+     */
+    @Override
+    public void onOpen(String sid, Long lastSeq) {
+        String lastSeqKey = LAST_SEQ_KEY_PREFIX + sid;
+        if (lastSeq == null) {
+            String saved = stringRedisTemplate.opsForValue().get(lastSeqKey);
+            if (saved == null) {
+                // 首次连接不补发历史消息，从当前序号开始记录接收进度
+                String current = stringRedisTemplate.opsForValue().get(SEQ_KEY);
+                if (current != null) {
+                    advance(lastSeqKey, Long.parseLong(current));
+                }
+                return;
+            }
+            lastSeq = Long.valueOf(saved);
+        }
+
+        List<String> messages = stringRedisTemplate.opsForList().range(REPLAY_KEY, 0, -1);
+        if (messages == null) {
+            return;
+        }
+        int count = 0;
+        // 列表中最新的在前，从最早的开始补发
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            JSONObject envelope = JSON.parseObject(messages.get(i));
+            long seq = envelope.getLongValue("seq");
+            String target = envelope.getString("sid");
+            if (seq > lastSeq && (target == null || target.equals(sid))) {
+                webSocketServer.replayToClient(sid, envelope.getString("key"), envelope.getString("message"), seq);
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.info("客户端：{}重连，补发{}条消息", sid, count);
+        }
+    }
+
+    /**
+     * 记录客户端连续接收到的消息序号，只增不减
+     * @param sid
+     * @param seq
+     */
+    @Override
+    public void onDelivered(String sid, long seq) {
+        advance(LAST_SEQ_KEY_PREFIX + sid, seq);
+    }
+
+    private void advance(String lastSeqKey, long seq) {
+        stringRedisTemplate.execute(ADVANCE_SCRIPT, Collections.singletonList(lastSeqKey),
+                String.valueOf(seq), String.valueOf(TimeUnit.DAYS.toSeconds(lastSeqTtlDays)));
+    }
+}
@@ -1,33 +1,94 @@
 package com.sky.websocket;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
 import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * WebSocket服务
+ * 每个会话有各自的有界发送队列，消息异步发送，群发时不会被慢速的客户端阻塞
+ * 这里只向当前节点的会话发送消息，集群内的广播由WebSocketClusterBroadcaster通过redis转发到各节点
  */
 @Component
 @ServerEndpoint("/ws/{sid}")
+@Slf4j
 public class WebSocketServer {
 
+    // 发送队列满时的处理策略：丢弃最早的消息、断开连接
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_CLOSE = "close";
+
     //存放会话对象
-    private static Map<String, Session> sessionMap = new HashMap();
+    private static final Map<String, WebSocketSessionSender> sessionMap = new ConcurrentHashMap<>();
+
+    // 端点对象由WebSocket容器为每个连接创建，配置保存在静态变量中，由Spring管理的对象注入
+    private static volatile int queueCapacity = 100;
+    private static volatile String overflowPolicy = OVERFLOW_DROP;
+    private static volatile long sendTimeoutMillis = 5000;
+    private static volatile int replaySize = 100;
+    // 会话事件监听器，由WebSocketClusterBroadcaster注册
+    private static volatile WebSocketSessionListener sessionListener;
+
+    public static void setSessionListener(WebSocketSessionListener listener) {
+        WebSocketServer.sessionListener = listener;
+    }
+
+    @Value("${sky.websocket.queue-capacity:100}")
+    public void setQueueCapacity(int queueCapacity) {
+        WebSocketServer.queueCapacity = queueCapacity;
+    }
+
+    @Value("${sky.websocket.overflow-policy:drop}")
+    public void setOverflowPolicy(String overflowPolicy) {
+        WebSocketServer.overflowPolicy = overflowPolicy;
+    }
+
+    @Value("${sky.websocket.replay-size:100}")
+    public void setReplaySize(int replaySize) {
+        WebSocketServer.replaySize = replaySize;
+    }
+
+    @Value("${sky.websocket.send-timeout-millis:5000}")
+    public void setSendTimeoutMillis(long sendTimeoutMillis) {
+        WebSocketServer.sendTimeoutMillis = sendTimeoutMillis;
+    }
 
     /**
      * 连接建立成功调用的方法
      */
     @OnOpen
     public void onOpen(Session session, @PathParam("sid") String sid) {
-        System.out.println("客户端：" + sid + "建立连接");
-        sessionMap.put(sid, session);
+        log.info("客户端：{}建立连接", sid);
+        // 超时未发送完成的消息按失败处理，避免一直占用发送队列
+        session.getAsyncRemote().setSendTimeout(sendTimeoutMillis);
+        WebSocketSessionListener listener = sessionListener;
+        WebSocketSessionSender sender = new WebSocketSessionSender(sid, session, queueCapacity,
+                OVERFLOW_CLOSE.equals(overflowPolicy), replaySize, listener);
+        // 先注册会话再补发，补发完成之前收到的新消息由sender暂存，补发完成后按序号去重再发送，
+        // 读取补发消息与注册会话之间发布的消息不会丢失
+        sessionMap.put(sid, sender);
+
+        if (listener != null) {
+            // 客户端可以通过 ?lastSeq=xxx 指定最后接收的消息序号，补发之后的消息
+            List<String> lastSeq = session.getRequestParameterMap().get("lastSeq");
+            try {
+                listener.onOpen(sid, lastSeq == null || lastSeq.isEmpty() ? null : Long.valueOf(lastSeq.get(0)));
+            } catch (Exception e) {
+                log.warn("客户端：{}补发消息失败", sid, e);
+            } finally {
+                sender.finishReplay();
+            }
+        }
     }
 
     /**
@@ -37,7 +98,7 @@ public class WebSocketServer {
      */
     @OnMessage
     public void onMessage(String message, @PathParam("sid") String sid) {
-        System.out.println("收到来自客户端：" + sid + "的信息:" + message);
+        log.info("收到来自客户端：{}的信息:{}", sid, message);
     }
 
     /**
@@ -46,9 +107,24 @@ public class WebSocketServer {
      * @param sid
      */
     @OnClose
-    public void onClose(@PathParam("sid") String sid) {
-        System.out.println("连接断开:" + sid);
-        sessionMap.remove(sid);
+    public void onClose(Session session, @PathParam("sid") String sid) {
+        log.info("连接断开:{}", sid);
+        // 同一个sid重新连接后，旧连接的关闭不能移除新连接
+        WebSocketSessionSender sender = sessionMap.get(sid);
+        if (sender != null && sender.isFor(session)) {
+            sessionMap.remove(sid, sender);
+        }
+    }
+
+    /**
+     * 连接异常调用的方法
+     *
+     * @param sid
+     * @param error
+     */
+    @OnError
+    public void onError(@PathParam("sid") String sid, Throwable error) {
+        log.warn("客户端：{}连接异常：{}", sid, error.getMessage());
     }
 
     /**
@@ -57,14 +133,63 @@ public class WebSocketServer {
      * @param message
      */
     public void sendToAllClient(String message) {
-        Collection<Session> sessions = sessionMap.values();
-        for (Session session : sessions) {
-            try {
-                //服务器向客户端发送消息
-                session.getBasicRemote().sendText(message);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        sendToAllClient(null, message);
+    }
+
+    /**
+     * 群发，消息只进入各会话的发送队列，不等待发送完成
+     * 同一会话的发送队列中已有相同合并key的未发送消息时，只保留最新的一条
+     *
+     * @param coalesceKey 合并key，为null时不合并
+     * @param message
+     */
+    public void sendToAllClient(String coalesceKey, String message) {
+        sendToAllClient(coalesceKey, message, 0);
+    }
+
+    /**
+     * 群发带序号的消息，发送成功后记录客户端的接收进度
+     *
+     * @param coalesceKey 合并key，为null时不合并
+     * @param message
+     * @param seq 消息序号
+     */
+    public void sendToAllClient(String coalesceKey, String message, long seq) {
+        for (WebSocketSessionSender sender : sessionMap.values()) {
+            sender.send(coalesceKey, message, seq);
+        }
+    }
+
+    /**
+     * 向当前节点上的指定客户端发送消息
+     *
+     * @param sid
+     * @param coalesceKey 合并key，为null时不合并
+     * @param message
+     * @param seq 消息序号，为0时不记录接收进度
+     * @return 客户端是否连接在当前节点
+     */
+    public boolean sendToClient(String sid, String coalesceKey, String message, long seq) {
+        WebSocketSessionSender sender = sessionMap.get(sid);
+        if (sender == null) {
+            return false;
+        }
+        sender.send(coalesceKey, message, seq);
+        return true;
+    }
+
+    /**
+     * 向当前节点上的指定客户端补发消息，只在WebSocketSessionListener.onOpen中调用
+     *
+     * @param sid
+     * @param coalesceKey 合并key，为null时不合并
+     * @param message
+     * @param seq 消息序号
+     */
+    public void replayToClient(String sid, String coalesceKey, String message, long seq) {
+        WebSocketSessionSender sender = sessionMap.get(sid);
+        if (sender != null) {
+            sender.replay(coalesceKey, message, seq);
         }
     }
 
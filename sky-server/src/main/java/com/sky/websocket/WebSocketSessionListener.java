@@ -0,0 +1,22 @@
+package com.sky.websocket;
+
+/**
+ * WebSocket会话事件的监听器，用于在集群中记录客户端的接收进度并在重连时补发消息
+ */
+public interface WebSocketSessionListener {
+
+    /**
+     * 客户端建立连接，需要补发的消息通过WebSocketServer.replayToClient发送
+     * @param sid
+     * @param lastSeq 客户端携带的最后接收的消息序号，未携带时为null
+     */
+    void onOpen(String sid, Long lastSeq);
+
+    /**
+     * 客户端的接收进度推进，该序号及之前发给该客户端的消息都已送达
+     * 同一客户端的序号单调递增，但其他节点上的旧连接可能报告较小的序号
+     * @param sid
+     * @param seq
+     */
+    void onDelivered(String sid, long seq);
+}
@@ -0,0 +1,317 @@
+package com.sky.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 单个会话的发送队列
+ * 消息先进入有界队列，再通过异步方式逐条发送，同一会话同时只有一条消息在发送中，
+ * 调用方只需要入队，不会被慢速的客户端阻塞。
+ * 队列中的消息始终按序号排列，接收进度只推进到连续送达的位置：
+ * 未发送完成的消息、被丢弃或发送失败的消息之后的序号都不会被记录为已接收，重连时会补发。
+ * 丢失的消息移出补发列表后已无法补发，不再限制接收进度，避免之后每次重连都补发整个列表
+ */
+@Slf4j
+class WebSocketSessionSender implements SendHandler {
+
+    private final String sid;
+    private final Session session;
+    private final int queueCapacity;
+    private final boolean closeOnOverflow;
+    // 补发列表保存的消息条数，序号落后最新序号达到该值的消息已无法补发
+    private final int replayWindow;
+    // 接收进度的回调，可以为null
+    private final WebSocketSessionListener listener;
+
+    // 以下字段只在持有锁时访问
+    // 待发送的消息
+    private final Deque<OutboundMessage> queue = new ArrayDeque<>();
+    // 正在发送的消息，为null时表示没有消息在发送
+    private OutboundMessage inFlight;
+    // 是否已因队列溢出关闭
+    private boolean closed;
+    // 是否正在补发，补发期间收到的新消息暂存在buffer中
+    private boolean replaying;
+    private List<OutboundMessage> buffer = new ArrayList<>();
+    // 已补发的最大序号
+    private long lastReplayedSeq;
+    // 队列中和发送中的消息序号
+    private final TreeSet<Long> pendingSeqs = new TreeSet<>();
+    // 已送达的最大序号
+    private long maxDeliveredSeq;
+    // 被丢弃或发送失败、仍可以补发的消息序号，接收进度不能超过其中最小的序号
+    private final TreeSet<Long> lostSeqs = new TreeSet<>();
+    // 已通知listener的接收进度
+    private long reportedSeq;
+
+    WebSocketSessionSender(String sid, Session session, int queueCapacity, boolean closeOnOverflow,
+                           int replayWindow, WebSocketSessionListener listener) {
+        this.sid = sid;
+        this.session = session;
+        this.queueCapacity = queueCapacity;
+        this.closeOnOverflow = closeOnOverflow;
+        this.replayWindow = replayWindow;
+        this.listener = listener;
+        // 需要补发时，补发完成之前新消息先暂存
+        this.replaying = listener != null;
+    }
+
+    boolean isFor(Session session) {
+        return this.session == session;
+    }
+
+    /**
+     * 消息入队，队列中已有相同合并key的消息时，移除旧消息并把新消息加到队尾，保持队列按序号排列
+     * @param coalesceKey 合并key，为null时不合并
+     * @param text
+     * @param seq 消息序号，为0时表示不需要记录接收进度
+     */
+    void send(String coalesceKey, String text, long seq) {
+        OutboundMessage message = new OutboundMessage(coalesceKey, text, seq);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (replaying) {
+                buffer.add(message);
+                return;
+            }
+        }
+        offer(message);
+    }
+
+    /**
+     * 补发消息，补发期间直接入队
+     * @param coalesceKey
+     * @param text
+     * @param seq
+     */
+    void replay(String coalesceKey, String text, long seq) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            lastReplayedSeq = Math.max(lastReplayedSeq, seq);
+        }
+        offer(new OutboundMessage(coalesceKey, text, seq));
+    }
+
+    /**
+     * 补发完成，暂存的新消息中序号大于已补发序号的依次入队
+     */
+    void finishReplay() {
+        OutboundMessage next = null;
+        boolean overflow = false;
+        synchronized (this) {
+            if (!replaying) {
+                return;
+            }
+            replaying = false;
+            for (OutboundMessage message : buffer) {
+                if (closed) {
+                    break;
+                }
+                if (message.seq == 0 || message.seq > lastReplayedSeq) {
+                    overflow = !enqueue(message) || overflow;
+                }
+            }
+            buffer = null;
+            if (!overflow) {
+                next = pollNextIfIdle();
+            }
+        }
+
+        if (overflow) {
+            closeSlowSession();
+        } else if (next != null) {
+            doSend(next);
+        }
+    }
+
+    /**
+     * 异步发送完成的回调，推进接收进度并继续发送队列中的下一条消息
+     * @param result
+     */
+    @Override
+    public void onResult(SendResult result) {
+        OutboundMessage next;
+        long delivered;
+        synchronized (this) {
+            OutboundMessage done = inFlight;
+            if (done != null && done.seq > 0) {
+                pendingSeqs.remove(done.seq);
+                if (result.isOK()) {
+                    maxDeliveredSeq = Math.max(maxDeliveredSeq, done.seq);
+                } else {
+                    lostSeqs.add(done.seq);
+                }
+            }
+            inFlight = null;
+            next = pollNextIfIdle();
+            delivered = advanceDeliveredSeq();
+        }
+
+        if (!result.isOK()) {
+            log.warn("向客户端{}发送消息失败", sid, result.getException());
+        }
+        if (delivered > 0) {
+            try {
+                listener.onDelivered(sid, delivered);
+            } catch (Exception e) {
+                log.warn("记录客户端{}已接收的消息序号失败", sid, e);
+            }
+        }
+        if (next != null) {
+            doSend(next);
+        }
+    }
+
+    private void offer(OutboundMessage message) {
+        OutboundMessage next = null;
+        boolean overflow;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            overflow = !enqueue(message);
+            if (!overflow) {
+                next = pollNextIfIdle();
+            }
+        }
+
+        if (overflow) {
+            closeSlowSession();
+        } else if (next != null) {
+            doSend(next);
+        }
+    }
+
+    /**
+     * 消息入队，持有锁时调用
+     * @param message
+     * @return 队列已满且策略为断开连接时返回false
+     */
+    private boolean enqueue(OutboundMessage message) {
+        if (message.coalesceKey != null) {
+            Iterator<OutboundMessage> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                OutboundMessage queued = iterator.next();
+                if (message.coalesceKey.equals(queued.coalesceKey)) {
+                    // 旧消息的内容被新消息取代，不算丢失
+                    iterator.remove();
+                    pendingSeqs.remove(queued.seq);
+                    break;
+                }
+            }
+        }
+        if (queue.size() >= queueCapacity) {
+            if (closeOnOverflow) {
+                closed = true;
+                for (OutboundMessage queued : queue) {
+                    lost(queued);
+                }
+                queue.clear();
+                return false;
+            }
+            // 丢弃最早的消息
+            lost(queue.pollFirst());
+            log.warn("客户端{}接收过慢，丢弃最早的一条消息", sid);
+        }
+        queue.addLast(message);
+        if (message.seq > 0) {
+            pendingSeqs.add(message.seq);
+            // 已移出补发列表的丢失消息无法再补发
+            lostSeqs.headSet(message.seq - replayWindow, true).clear();
+        }
+        return true;
+    }
+
+    private OutboundMessage pollNextIfIdle() {
+        if (inFlight != null) {
+            return null;
+        }
+        inFlight = queue.pollFirst();
+        return inFlight;
+    }
+
+    private void lost(OutboundMessage message) {
+        if (message != null && message.seq > 0) {
+            pendingSeqs.remove(message.seq);
+            lostSeqs.add(message.seq);
+        }
+    }
+
+    /**
+     * 计算连续送达的序号，持有锁时调用
+     * @return 接收进度有推进时返回新的序号，否则返回0
+     */
+    private long advanceDeliveredSeq() {
+        if (listener == null) {
+            return 0;
+        }
+        long delivered = maxDeliveredSeq;
+        if (!pendingSeqs.isEmpty()) {
+            delivered = Math.min(delivered, pendingSeqs.first() - 1);
+        }
+        if (!lostSeqs.isEmpty()) {
+            delivered = Math.min(delivered, lostSeqs.first() - 1);
+        }
+        if (delivered <= reportedSeq) {
+            return 0;
+        }
+        reportedSeq = delivered;
+        return delivered;
+    }
+
+    private void doSend(OutboundMessage message) {
+        try {
+            session.getAsyncRemote().sendText(message.text, this);
+        } catch (Exception e) {
+            // 会话已关闭等情况，丢弃剩余消息
+            log.warn("向客户端{}发送消息失败：{}", sid, e.getMessage());
+            synchronized (this) {
+                lost(inFlight);
+                for (OutboundMessage queued : queue) {
+                    lost(queued);
+                }
+                queue.clear();
+                inFlight = null;
+            }
+        }
+    }
+
+    private void closeSlowSession() {
+        log.warn("客户端{}接收过慢，发送队列已满，断开连接", sid);
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "发送队列已满"));
+        } catch (IOException e) {
+            log.warn("关闭客户端{}连接失败", sid, e);
+        }
+    }
+
+    /**
+     * 待发送的消息
+     */
+    private static class OutboundMessage {
+        private final String coalesceKey;
+        private final String text;
+        private final long seq;
+
+        OutboundMessage(String coalesceKey, String text, long seq) {
+            this.coalesceKey = coalesceKey;
+            this.text = text;
+            this.seq = seq;
+        }
+    }
+}
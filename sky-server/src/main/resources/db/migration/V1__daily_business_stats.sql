@@ -0,0 +1,13 @@
+-- 每日营业数据物化表，由订单状态流转和用户注册增量维护，每晚与原始数据对账
+create table if not exists daily_business_stats
+(
+    stat_date             date                    not null comment '统计日期'
+        primary key,
+    turnover              decimal(12, 2) default 0 not null comment '营业额',
+    total_order_count     int            default 0 not null comment '订单总数',
+    valid_order_count     int            default 0 not null comment '有效订单数',
+    cancelled_order_count int            default 0 not null comment '已取消订单数',
+    new_users             int            default 0 not null comment '新增用户数',
+    update_time           datetime                null comment '更新时间'
+)
+    comment '每日营业数据';
@@ -0,0 +1,27 @@
+-- 订单、订单明细、菜品口味、用户表的查询索引
+
+-- 按订单号查询订单（支付回调、支付成功）
+-- 历史数据中的订单号可能重复（旧版本使用毫秒时间戳作为订单号），因此不使用唯一索引
+create index idx_orders_number on orders (number);
+
+-- 按状态统计和扫描订单：countStatus、getByStatusAndOrderTimeLT、带状态的sumByMap/countByMap、getSalesTop10
+-- 包含amount，按状态和时间汇总营业额时不需要回表
+create index idx_orders_status_order_time on orders (status, order_time, amount);
+
+-- 按下单时间范围统计和导出订单：不带状态的countByMap、getDailyStatistics、listByOrderTime
+create index idx_orders_order_time on orders (order_time, status, amount);
+
+-- 用户端历史订单分页查询，按用户过滤、按下单时间倒序
+create index idx_orders_user_id_order_time on orders (user_id, order_time);
+
+-- 按订单id批量查询订单明细
+create index idx_order_detail_order_id on order_detail (order_id);
+
+-- 按菜品id批量查询口味
+create index idx_dish_flavor_dish_id on dish_flavor (dish_id);
+
+-- 微信登录按openid查询用户
+create index idx_user_openid on user (openid);
+
+-- 按注册时间统计新增用户
+create index idx_user_create_time on user (create_time);
@@ -0,0 +1,4 @@
+-- 订单游标分页：不带用户条件时按 (order_time, id) 倒序扫描
+-- 二级索引的叶子节点包含主键id，(order_time) 索引即按 (order_time, id) 有序
+-- 带用户条件时使用 idx_orders_user_id_order_time，同样隐含 id
+create index idx_orders_order_time_id on orders (order_time);
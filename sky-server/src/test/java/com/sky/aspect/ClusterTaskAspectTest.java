@@ -0,0 +1,193 @@
+package com.sky.aspect;
+
+import com.sky.annotation.ClusterTask;
+import com.sky.support.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 集群定时任务测试，两个切面实例模拟两个节点，共用一个内嵌redis
+ */
+public class ClusterTaskAspectTest {
+
+    private static EmbeddedRedis redis;
+
+    private ClusterTaskAspect aspectA;
+    private ClusterTaskAspect aspectB;
+    private ExecutorService executor;
+
+    @BeforeAll
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    public static void stopRedis() throws Exception {
+        redis.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        redis.flushAll();
+        aspectA = newAspect();
+        aspectB = newAspect();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        aspectA.destroy();
+        aspectB.destroy();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 两个节点同时触发同一任务，只有一个节点执行，另一个节点跳过并返回0
+     */
+    @Test
+    public void onlyOneNodeRunsAtATime() throws Exception {
+        Tasks tasks = new Tasks(300);
+        Tasks nodeA = proxy(tasks, aspectA);
+        Tasks nodeB = proxy(tasks, aspectB);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Future<Integer> a = executor.submit(() -> {
+            start.await();
+            return nodeA.sweep();
+        });
+        Future<Integer> b = executor.submit(() -> {
+            start.await();
+            return nodeB.sweep();
+        });
+        start.countDown();
+
+        assertEquals(1, a.get(10, TimeUnit.SECONDS) + b.get(10, TimeUnit.SECONDS));
+        assertEquals(1, tasks.runs.get());
+        assertEquals(1, tasks.maxConcurrent.get());
+    }
+
+    /**
+     * 执行时间超过租约时长时租约被续期，其他节点不会重复执行
+     */
+    @Test
+    public void leaseIsRenewedWhileTaskRuns() throws Exception {
+        Tasks tasks = new Tasks(2500);
+        Tasks nodeA = proxy(tasks, aspectA);
+        Tasks nodeB = proxy(tasks, aspectB);
+
+        Future<Integer> a = executor.submit(nodeA::shortLeaseSweep);
+        // 等待超过租约时长（1秒）后，另一个节点尝试执行
+        Thread.sleep(1500);
+        assertEquals(0, nodeB.shortLeaseSweep());
+
+        assertEquals(1, a.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(1, tasks.runs.get());
+        assertEquals(1, tasks.maxConcurrent.get());
+    }
+
+    /**
+     * 任务执行完成后在最短持有时间内，其他节点不会再执行一次；租约释放后可以执行
+     */
+    @Test
+    public void holdSecondsPreventsImmediateRerun() throws Exception {
+        Tasks tasks = new Tasks(0);
+        Tasks nodeA = proxy(tasks, aspectA);
+        Tasks nodeB = proxy(tasks, aspectB);
+
+        assertEquals(1, nodeA.holdSweep());
+        assertEquals(0, nodeB.holdSweep());
+
+        Thread.sleep(1500);
+        assertEquals(1, nodeB.holdSweep());
+        assertEquals(2, tasks.runs.get());
+    }
+
+    /**
+     * 任务失败时释放租约，其他节点可以立即执行
+     */
+    @Test
+    public void failedTaskReleasesLease() throws Exception {
+        Tasks tasks = new Tasks(0);
+        Tasks nodeA = proxy(tasks, aspectA);
+        Tasks nodeB = proxy(tasks, aspectB);
+
+        tasks.fail = true;
+        assertThrows(IllegalStateException.class, nodeA::sweep);
+        tasks.fail = false;
+
+        assertEquals(1, nodeB.sweep());
+        assertEquals(2, tasks.runs.get());
+    }
+
+    private ClusterTaskAspect newAspect() {
+        ClusterTaskAspect aspect = new ClusterTaskAspect();
+        ReflectionTestUtils.setField(aspect, "stringRedisTemplate", redis.newTemplate());
+        return aspect;
+    }
+
+    private Tasks proxy(Tasks target, ClusterTaskAspect aspect) {
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        return factory.getProxy();
+    }
+
+    /**
+     * 被切面拦截的定时任务，记录执行次数和最大并发数
+     */
+    public static class Tasks {
+        private final long sleepMillis;
+        private final AtomicInteger runs = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private volatile boolean fail;
+
+        public Tasks(long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+
+        @ClusterTask(value = "test:sweep", holdSeconds = 0)
+        public int sweep() throws InterruptedException {
+            return run();
+        }
+
+        @ClusterTask(value = "test:short-lease", leaseSeconds = 1, holdSeconds = 0)
+        public int shortLeaseSweep() throws InterruptedException {
+            return run();
+        }
+
+        @ClusterTask(value = "test:hold", holdSeconds = 1)
+        public int holdSweep() throws InterruptedException {
+            return run();
+        }
+
+        private int run() throws InterruptedException {
+            runs.incrementAndGet();
+            maxConcurrent.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                if (fail) {
+                    throw new IllegalStateException("任务失败");
+                }
+                Thread.sleep(sleepMillis);
+                return 1;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.sky.service.impl;
+
+import com.sky.context.BaseContext;
+import com.sky.dto.ShoppingCartDTO;
+import com.sky.entity.Dish;
+import com.sky.entity.ShoppingCart;
+import com.sky.mapper.DishMapper;
+import com.sky.mapper.SetmealMapper;
+import com.sky.mapper.ShoppingCartMapper;
+import com.sky.support.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * redis购物车的并发测试，使用内嵌redis执行真实的lua脚本
+ */
+public class ShoppingCartServiceImplTest {
+
+    private static final Long USER_ID = 1L;
+    private static final Long DISH_ID = 10L;
+
+    private static EmbeddedRedis redis;
+
+    private ShoppingCartServiceImpl shoppingCartService;
+    private ShoppingCartMapper shoppingCartMapper;
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeAll
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    public static void stopRedis() throws Exception {
+        redis.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        redis.flushAll();
+
+        shoppingCartMapper = mock(ShoppingCartMapper.class);
+        DishMapper dishMapper = mock(DishMapper.class);
+        when(dishMapper.getById(anyLong())).thenAnswer(invocation -> Dish.builder()
+                .id(invocation.getArgument(0))
+                .name("菜品")
+                .price(new BigDecimal("12.50"))
+                .build());
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+
+        shoppingCartService = new ShoppingCartServiceImpl();
+        ReflectionTestUtils.setField(shoppingCartService, "shoppingCartMapper", shoppingCartMapper);
+        ReflectionTestUtils.setField(shoppingCartService, "dishMapper", dishMapper);
+        ReflectionTestUtils.setField(shoppingCartService, "setmealMapper", mock(SetmealMapper.class));
+        ReflectionTestUtils.setField(shoppingCartService, "stringRedisTemplate", redis.newTemplate());
+        ReflectionTestUtils.setField(shoppingCartService, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(shoppingCartService, "expireDays", 7L);
+    }
+
+    /**
+     * 同一商品并发增加和减少数量，最终数量准确，没有丢失修改
+     */
+    @Test
+    public void concurrentAddAndSubOnOneItem() throws Exception {
+        int initial = 5000;
+        int threads = 8;
+        int perThread = 300;
+        shoppingCartService.addAll(USER_ID, Collections.singletonList(dishItem(initial)));
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(asUser(() -> shoppingCartService.addShoppingCart(dishDTO())));
+            tasks.add(asUser(() -> shoppingCartService.subShoppingCart(dishDTO())));
+        }
+        runConcurrently(tasks, perThread);
+
+        List<ShoppingCart> list = shoppingCartService.list(USER_ID);
+        assertEquals(1, list.size());
+        assertEquals(initial, list.get(0).getNumber().intValue());
+    }
+
+    /**
+     * 并发添加购物车中还没有的商品，只保留一个商品，数量等于添加次数
+     */
+    @Test
+    public void concurrentAddOfNewItem() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(asUser(() -> shoppingCartService.addShoppingCart(dishDTO())));
+        }
+        runConcurrently(tasks, perThread);
+
+        List<ShoppingCart> list = shoppingCartService.list(USER_ID);
+        assertEquals(1, list.size());
+        assertEquals(threads * perThread, list.get(0).getNumber().intValue());
+        assertEquals(new BigDecimal("12.50"), list.get(0).getAmount());
+    }
+
+    /**
+     * 并发减少数量直到删除，数量不会变成负数，删除后商品不再出现在购物车中
+     */
+    @Test
+    public void concurrentSubRemovesItemOnce() throws Exception {
+        shoppingCartService.addAll(USER_ID, Collections.singletonList(dishItem(100)));
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(asUser(() -> shoppingCartService.subShoppingCart(dishDTO())));
+        }
+        runConcurrently(tasks, 50);
+
+        assertTrue(shoppingCartService.list(USER_ID).isEmpty());
+    }
+
+    /**
+     * 并发读取未导入的购物车，只导入一次，所有请求都看到完整的购物车
+     */
+    @Test
+    public void concurrentFirstReadsSeeCompleteImport() throws Exception {
+        when(shoppingCartMapper.list(any())).thenAnswer(invocation -> {
+            // 模拟较慢的查询，让其他请求在导入过程中读取购物车
+            Thread.sleep(200);
+            return Arrays.asList(dishItem(2), setmealItem(3));
+        });
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 16; i++) {
+            tasks.add(() -> {
+                sizes.add(shoppingCartService.list(USER_ID).size());
+                return null;
+            });
+        }
+        runConcurrently(tasks, 1);
+
+        assertEquals(16, sizes.size());
+        for (Integer size : sizes) {
+            assertEquals(2, size.intValue());
+        }
+        verify(shoppingCartMapper, times(1)).list(any());
+        verify(shoppingCartMapper, times(1)).deleteByUserId(USER_ID);
+    }
+
+    /**
+     * 导入失败时不写入已导入标记，数据库中的数据保留，下次请求重新导入
+     */
+    @Test
+    public void failedImportIsRetried() {
+        when(shoppingCartMapper.list(any()))
+                .thenThrow(new RuntimeException("数据库异常"))
+                .thenReturn(Collections.singletonList(dishItem(2)));
+
+        assertThrows(RuntimeException.class, () -> shoppingCartService.list(USER_ID));
+        verify(shoppingCartMapper, never()).deleteByUserId(anyLong());
+
+        List<ShoppingCart> list = shoppingCartService.list(USER_ID);
+        assertEquals(1, list.size());
+        assertEquals(2, list.get(0).getNumber().intValue());
+        verify(shoppingCartMapper, times(1)).deleteByUserId(USER_ID);
+    }
+
+    private Callable<Void> asUser(Runnable action) {
+        return () -> {
+            BaseContext.setCurrentId(USER_ID);
+            try {
+                action.run();
+            } finally {
+                BaseContext.removeCurrentId();
+            }
+            return null;
+        };
+    }
+
+    /**
+     * 所有任务同时开始，每个任务重复执行times次
+     */
+    private void runConcurrently(List<Callable<Void>> tasks, int times) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < times; i++) {
+                    task.call();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ShoppingCartDTO dishDTO() {
+        ShoppingCartDTO shoppingCartDTO = new ShoppingCartDTO();
+        shoppingCartDTO.setDishId(DISH_ID);
+        shoppingCartDTO.setDishFlavor("微辣");
+        return shoppingCartDTO;
+    }
+
+    private ShoppingCart dishItem(int number) {
+        return ShoppingCart.builder()
+                .userId(USER_ID)
+                .dishId(DISH_ID)
+                .dishFlavor("微辣")
+                .name("菜品")
+                .amount(new BigDecimal("12.50"))
+                .number(number)
+                .createTime(LocalDateTime.now())
+                .build();
+    }
+
+    private ShoppingCart setmealItem(int number) {
+        return ShoppingCart.builder()
+                .userId(USER_ID)
+                .setmealId(20L)
+                .name("套餐")
+                .amount(new BigDecimal("30.00"))
+                .number(number)
+                .createTime(LocalDateTime.now())
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package com.sky.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 雪花算法id生成器测试
+ */
+public class SnowflakeIdGeneratorTest {
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_ID_BITS = 10;
+    // 2024-01-01 00:00:00 UTC
+    private static final long NOW = 1704067200000L;
+
+    /**
+     * 多线程并发生成id，所有id不重复，每个线程内严格递增
+     */
+    @Test
+    public void concurrentIdsAreUniqueAndIncreasing() throws Exception {
+        int threads = 8;
+        int idsPerThread = 50000;
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                long[] ids = new long[idsPerThread];
+                for (int j = 0; j < idsPerThread; j++) {
+                    ids[j] = generator.nextId();
+                }
+                return ids;
+            }));
+        }
+        start.countDown();
+
+        Set<Long> all = new HashSet<>();
+        for (Future<long[]> future : futures) {
+            long[] ids = future.get(60, TimeUnit.SECONDS);
+            for (int j = 0; j < ids.length; j++) {
+                if (j > 0) {
+                    assertTrue(ids[j] > ids[j - 1], "同一线程内id应严格递增");
+                }
+                assertEquals(1, workerIdOf(ids[j]));
+                all.add(ids[j]);
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(threads * idsPerThread, all.size(), "id不应重复");
+    }
+
+    /**
+     * 同一毫秒内生成超过4096个id时，序号用完后进位到下一毫秒
+     */
+    @Test
+    public void sequenceRollsOverToNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, Long.MAX_VALUE, () -> NOW);
+
+        long first = generator.nextId();
+        long prev = first;
+        for (int i = 1; i < 4096; i++) {
+            long id = generator.nextId();
+            assertTrue(id > prev);
+            assertEquals(timestampOf(first), timestampOf(id));
+            prev = id;
+        }
+        assertEquals(4095, sequenceOf(prev));
+
+        long rolled = generator.nextId();
+        assertTrue(rolled > prev);
+        assertEquals(timestampOf(first) + 1, timestampOf(rolled));
+        assertEquals(0, sequenceOf(rolled));
+        assertEquals(3, workerIdOf(rolled));
+    }
+
+    /**
+     * 时钟回拨时沿用上一次的时间戳继续递增
+     */
+    @Test
+    public void clockMovingBackwardsKeepsIdsIncreasing() {
+        AtomicLong now = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0, Long.MAX_VALUE, now::get);
+
+        long before = generator.nextId();
+        now.addAndGet(-1000);
+        long after = generator.nextId();
+
+        assertTrue(after > before);
+        assertEquals(timestampOf(before), timestampOf(after));
+    }
+
+    /**
+     * 租约过期或被收回后停止生成id，重新设置机器id后恢复，且id继续递增
+     */
+    @Test
+    public void expiredOrRevokedLeaseStopsIds() {
+        AtomicLong now = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5, NOW + 1000, now::get);
+        long before = generator.nextId();
+
+        now.set(NOW + 1000);
+        assertThrows(IllegalStateException.class, generator::nextId);
+
+        generator.updateLease(6, NOW + 2000);
+        long renewed = generator.nextId();
+        assertTrue(renewed > before);
+        assertEquals(6, workerIdOf(renewed));
+
+        generator.revokeLease();
+        assertThrows(IllegalStateException.class, generator::nextId);
+
+        generator.updateLease(7, Long.MAX_VALUE);
+        long resumed = generator.nextId();
+        assertTrue(resumed > renewed);
+        assertEquals(7, workerIdOf(resumed));
+    }
+
+    @Test
+    public void rejectsWorkerIdOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(-1));
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID + 1));
+    }
+
+    private static long timestampOf(long id) {
+        return id >>> (WORKER_ID_BITS + SEQUENCE_BITS);
+    }
+
+    private static long workerIdOf(long id) {
+        return (id >>> SEQUENCE_BITS) & ((1L << WORKER_ID_BITS) - 1);
+    }
+
+    private static long sequenceOf(long id) {
+        return id & ((1L << SEQUENCE_BITS) - 1);
+    }
+}
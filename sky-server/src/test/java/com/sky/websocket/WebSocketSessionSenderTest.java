@@ -0,0 +1,150 @@
+package com.sky.websocket;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 单个会话发送队列的接收进度测试，发送完成的回调由测试手动触发
+ */
+public class WebSocketSessionSenderTest {
+
+    // 已发送、尚未回调的消息
+    private final Deque<String> sentTexts = new ArrayDeque<>();
+    private final Deque<SendHandler> handlers = new ArrayDeque<>();
+    // 已完成发送的消息
+    private final List<String> sentHistory = new ArrayList<>();
+    // listener收到的接收进度
+    private final List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+
+    private Session session;
+    private WebSocketSessionListener listener;
+
+    @BeforeEach
+    public void setUp() {
+        session = mock(Session.class);
+        RemoteEndpoint.Async async = mock(RemoteEndpoint.Async.class);
+        when(session.getAsyncRemote()).thenReturn(async);
+        doAnswer(invocation -> {
+            sentTexts.addLast(invocation.getArgument(0));
+            handlers.addLast(invocation.getArgument(1));
+            return null;
+        }).when(async).sendText(anyString(), any(SendHandler.class));
+
+        listener = new WebSocketSessionListener() {
+            @Override
+            public void onOpen(String sid, Long lastSeq) {
+            }
+
+            @Override
+            public void onDelivered(String sid, long seq) {
+                delivered.add(seq);
+            }
+        };
+    }
+
+    /**
+     * 丢弃的消息仍在补发列表中时，接收进度停在它之前；移出补发列表后接收进度继续推进
+     */
+    @Test
+    public void droppedMessageHoldsWatermarkOnlyWhileReplayable() {
+        WebSocketSessionSender sender = new WebSocketSessionSender("1", session, 1, false, 3, listener);
+        sender.finishReplay();
+
+        sender.send(null, "m1", 1);
+        sender.send(null, "m2", 2);
+        // 队列已满，丢弃m2
+        sender.send(null, "m3", 3);
+        complete(true);
+        complete(true);
+        assertEquals(Collections.singletonList(1L), delivered);
+
+        // 序号5时m2已移出补发列表（最近3条为3、4、5）
+        sender.send(null, "m5", 5);
+        complete(true);
+        assertEquals(Arrays.asList(1L, 5L), delivered);
+    }
+
+    /**
+     * 发送失败的消息同样限制接收进度，直到移出补发列表
+     */
+    @Test
+    public void failedSendHoldsWatermarkOnlyWhileReplayable() {
+        WebSocketSessionSender sender = new WebSocketSessionSender("1", session, 10, false, 2, listener);
+        sender.finishReplay();
+
+        sender.send(null, "m1", 1);
+        complete(false);
+        sender.send(null, "m2", 2);
+        complete(true);
+        assertEquals(Collections.emptyList(), delivered);
+
+        sender.send(null, "m3", 3);
+        complete(true);
+        assertEquals(Collections.singletonList(3L), delivered);
+    }
+
+    /**
+     * 合并的旧消息不算丢失，接收进度可以越过它
+     */
+    @Test
+    public void coalescedMessageDoesNotHoldWatermark() {
+        WebSocketSessionSender sender = new WebSocketSessionSender("1", session, 10, false, 100, listener);
+        sender.finishReplay();
+
+        sender.send(null, "m1", 1);
+        sender.send("k", "m2", 2);
+        sender.send("k", "m3", 3);
+        complete(true);
+        complete(true);
+
+        assertEquals(Arrays.asList("m1", "m3"), sentHistory);
+        assertEquals(Arrays.asList(1L, 3L), delivered);
+    }
+
+    /**
+     * 补发期间收到的新消息在补发完成后发送，序号不大于已补发序号的消息不重复发送
+     */
+    @Test
+    public void liveMessagesWaitForReplay() {
+        WebSocketSessionSender sender = new WebSocketSessionSender("1", session, 10, false, 100, listener);
+
+        sender.send(null, "m3", 3);
+        sender.send(null, "m4", 4);
+        sender.replay(null, "m2", 2);
+        sender.replay(null, "m3", 3);
+        sender.finishReplay();
+        while (!handlers.isEmpty()) {
+            complete(true);
+        }
+
+        assertEquals(Arrays.asList("m2", "m3", "m4"), sentHistory);
+        assertEquals(4L, delivered.get(delivered.size() - 1).longValue());
+    }
+
+    /**
+     * 完成最早一条发送中的消息
+     */
+    private void complete(boolean ok) {
+        sentHistory.add(sentTexts.pollFirst());
+        SendHandler handler = handlers.pollFirst();
+        handler.onResult(ok ? new SendResult() : new SendResult(new RuntimeException("发送失败")));
+    }
+}